@@ -0,0 +1,140 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Update kernels of a node, for one iteration of one node.
+ *
+ * Optimized kernels are the two-max scan of sendResponsibility
+ * and the positive-sum scan of sendAvailability.
+ * Unoptimized kernels compute each value from scratch,
+ * as the node does when sendOptimize is not set.
+ * Values are computed for the neighbors with finite similarity,
+ * as the node does when optimize is set.
+ * Contiguous kernels scan the same values compacted,
+ * as the node does when Constant.compact is set.
+ *
+ * @author Simone Schirinzi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark {
+    private static final MethodHandle responsibilities =
+            Repo.method("Kernels", "responsibilities", double[].class, double[].class, int[].class, int.class, double[].class);
+    private static final MethodHandle availabilities =
+            Repo.method("Kernels", "availabilities", double[].class, int[].class, int.class, int.class, double[].class);
+    private static final MethodHandle r =
+            Repo.method("Kernels", "r", double[].class, double[].class, int.class, int.class);
+    private static final MethodHandle a =
+            Repo.method("Kernels", "a", double[].class, int.class, int.class, int.class);
+    private static final MethodHandle aSelf =
+            Repo.method("Kernels", "a", double[].class, int.class, int.class);
+
+    /**
+     * number of nodes
+     */
+    @Param({"1000", "10000"})
+    public int size;
+
+    /**
+     * Fraction of similarities equal to -INF
+     */
+    @Param({"0.0", "0.5", "0.9"})
+    public double sparsity;
+
+    private int self;
+    private double[] s_row;
+    private double[] a_row;
+    private double[] r_col;
+    private int[] index;
+    private double[] out;
+
+    private int selfCompact;
+    private double[] s_compact;
+    private double[] a_compact;
+    private double[] r_compact;
+
+    @Setup
+    public void setup(){
+        self = size / 2;
+        s_row = Repo.vector(size, sparsity, 1);
+        s_row[self] = -500;
+        index = Repo.finite(s_row);
+
+        a_row = Repo.vector(size, 0, 2);
+        r_col = Repo.vector(size, 0, 3);
+        java.util.Random random = new java.util.Random(4);
+        for (int i = 0; i < size; i++) {
+            if (Double.isInfinite(s_row[i])) r_col[i] = Double.NEGATIVE_INFINITY;
+            else if (random.nextDouble() < 0.1) r_col[i] = -r_col[i];
+        }
+        out = new double[size];
+
+        s_compact = new double[index.length];
+        a_compact = new double[index.length];
+        r_compact = new double[index.length];
+        for (int p = 0; p < index.length; p++) {
+            s_compact[p] = s_row[index[p]];
+            a_compact[p] = a_row[index[p]];
+            r_compact[p] = r_col[index[p]];
+            if (index[p] == self) selfCompact = p;
+        }
+    }
+
+    @Benchmark
+    public double[] twoMaxResponsibilities() throws Throwable {
+        responsibilities.invokeExact(s_row, a_row, index, index.length, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] positiveSumAvailabilities() throws Throwable {
+        availabilities.invokeExact(r_col, index, index.length, self, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] contiguousResponsibilities() throws Throwable {
+        responsibilities.invokeExact(s_compact, a_compact, (int[]) null, s_compact.length, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] contiguousAvailabilities() throws Throwable {
+        availabilities.invokeExact(r_compact, (int[]) null, r_compact.length, selfCompact, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] unoptimizedResponsibilities() throws Throwable {
+        for (int p = 0; p < index.length; p++)
+            out[p] = (double) r.invokeExact(s_row, a_row, size, index[p]);
+        return out;
+    }
+
+    @Benchmark
+    public double[] unoptimizedAvailabilities() throws Throwable {
+        for (int p = 0; p < index.length; p++)
+            out[p] = index[p] != self
+                    ? (double) a.invokeExact(r_col, size, self, index[p])
+                    : (double) aSelf.invokeExact(r_col, size, self);
+        return out;
+    }
+}
@@ -0,0 +1,97 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The two text loaders of Util,
+ * on generated files of the given size and sparsity:
+ * triples {i, j, s(i,j)} without the -INF pairs,
+ * and a comma separated matrix with 0 for the -INF pairs.
+ *
+ * @author Simone Schirinzi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoaderBenchmark {
+    private static final MethodHandle triples =
+            Repo.method("Util", "buildGraph", String.class, String.class, String.class, boolean.class, double.class);
+    private static final MethodHandle matrix =
+            Repo.method("Util", "buildGraph", String.class, double.class, boolean.class, boolean.class, double.class);
+
+    /**
+     * number of nodes
+     */
+    @Param({"500", "2000"})
+    public int size;
+
+    /**
+     * Fraction of similarities equal to -INF
+     */
+    @Param({"0.0", "0.9"})
+    public double sparsity;
+
+    private File triplesFile;
+    private File matrixFile;
+
+    @Setup
+    public void setup() throws IOException {
+        triplesFile = File.createTempFile("triples", ".txt");
+        matrixFile = File.createTempFile("matrix", ".csv");
+
+        Random random = new Random(1);
+        try (PrintWriter t = new PrintWriter(triplesFile, "UTF-8");
+             PrintWriter m = new PrintWriter(matrixFile, "UTF-8")) {
+            for (int i = 0; i < size; i++) {
+                StringBuilder line = new StringBuilder();
+                for (int j = 0; j < size; j++) {
+                    boolean missing = i != j && random.nextDouble() < sparsity;
+                    double s = -random.nextDouble() * 1000;
+                    if (!missing) t.println((i + 1) + "  " + (j + 1) + "  " + s);
+                    if (j > 0) line.append(',');
+                    line.append(missing ? 0 : s);
+                }
+                m.println(line);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown(){
+        //noinspection ResultOfMethodCallIgnored
+        triplesFile.delete();
+        //noinspection ResultOfMethodCallIgnored
+        matrixFile.delete();
+    }
+
+    @Benchmark
+    public double[][] triples() throws Throwable {
+        return (double[][]) triples.invokeExact(triplesFile.getPath(), " ", (String) null, true, 0.0);
+    }
+
+    @Benchmark
+    public double[][] matrix() throws Throwable {
+        return (double[][]) matrix.invokeExact(matrixFile.getPath(), -500.0, true, true, 0.0);
+    }
+}
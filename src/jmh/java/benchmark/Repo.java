@@ -0,0 +1,80 @@
+package benchmark;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * Access to the classes under measure.
+ *
+ * JMH does not accept benchmarks in the default package,
+ * where the application classes live,
+ * so they are reached through method handles.
+ * The handles are kept in static final fields,
+ * where the JIT inlines them as direct calls.
+ *
+ * @author Simone Schirinzi
+ */
+final class Repo {
+    private Repo(){}
+
+    /**
+     * @param className class in the default package
+     * @param name of the static method
+     * @param types of the parameters
+     * @return handle to the method
+     */
+    static MethodHandle method(String className, String name, Class<?>... types){
+        try {
+            Method method = Class.forName(className).getDeclaredMethod(name, types);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param className class in the default package
+     * @param types of the parameters
+     * @return handle to the constructor, returning Object
+     */
+    static MethodHandle constructor(String className, Class<?>... types){
+        try {
+            Constructor<?> constructor = Class.forName(className).getDeclaredConstructor(types);
+            constructor.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflectConstructor(constructor);
+            return handle.asType(handle.type().changeReturnType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Vector of random values, -INF with the given probability
+     * @param size of the vector
+     * @param sparsity probability of -INF
+     * @param seed of the generator
+     * @return vector
+     */
+    static double[] vector(int size, double sparsity, long seed){
+        java.util.Random random = new java.util.Random(seed);
+        double[] ret = new double[size];
+        for (int i = 0; i < size; i++)
+            ret[i] = random.nextDouble() < sparsity ? Double.NEGATIVE_INFINITY : -random.nextDouble() * 1000;
+        return ret;
+    }
+
+    /**
+     * @param vector of values
+     * @return slots of the values different from -INF
+     */
+    static int[] finite(double[] vector){
+        int count = 0;
+        for (double v : vector) if (!Double.isInfinite(v)) count++;
+        int[] ret = new int[count];
+        for (int i = 0, j = 0; i < vector.length; i++) if (!Double.isInfinite(vector[i])) ret[j++] = i;
+        return ret;
+    }
+}
@@ -0,0 +1,213 @@
+package benchmark;
+
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.ByteBufferSerializer;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.SerializerWithStringManifest;
+import com.romix.akka.serialization.kryo.KryoSerializer;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of the messages exchanged by the nodes,
+ * with the configuration of common.conf.
+ * Initialize carries a dense row and column of the given size,
+ * a batch the values for a tenth of the nodes.
+ *
+ * The messages of each iteration are measured with Kryo
+ * and with HotSerializer, bound to them in common.conf:
+ * through arrays, as classic remoting does,
+ * and through a reused direct buffer, as Artery does.
+ *
+ * @author Simone Schirinzi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    /**
+     * number of nodes
+     */
+    @Param({"1000", "10000"})
+    public int size;
+
+    private ActorSystem system;
+    private Serializer kryo;
+    private SerializerWithStringManifest hot;
+    private ByteBuffer buffer;
+
+    private Object responsibility;
+    private Object availability;
+    private Object value;
+    private Object batch;
+    private Object initialize;
+
+    private byte[] responsibilityBytes;
+    private byte[] availabilityBytes;
+    private byte[] valueBytes;
+    private byte[] batchBytes;
+    private byte[] initializeBytes;
+
+    private byte[] hotResponsibilityBytes;
+    private byte[] hotBatchBytes;
+    private String responsibilityManifest;
+    private String batchManifest;
+
+    @Setup
+    public void setup() throws Throwable {
+        system = ActorSystem.create("benchmark", ConfigFactory
+                .parseString("akka.actor.provider = local")
+                .withFallback(ConfigFactory.load("common")));
+
+        responsibility = Repo.constructor("Responsibility", double.class, int.class).invoke(-12.5, 42);
+        availability = Repo.constructor("Availability", double.class, int.class).invoke(-3.25, 42);
+        value = Repo.constructor("Value", double.class, int.class, long.class).invoke(1.0, 42, 7L);
+        int[] receivers = new int[size / 10];
+        for (int i = 0; i < receivers.length; i++) receivers[i] = 3 * i;
+        batch = Repo.constructor("ResponsibilityBatch", int.class, int[].class, double[].class)
+                .invoke(42, receivers, Repo.vector(receivers.length, 0, 3));
+        initialize = Repo.constructor("Initialize", double[].class, double[].class, int.class)
+                .invoke(Repo.vector(size, 0, 1), Repo.vector(size, 0, 2), 42);
+
+        kryo = new KryoSerializer((ExtendedActorSystem) system);
+        responsibilityBytes = kryo.toBinary(responsibility);
+        availabilityBytes = kryo.toBinary(availability);
+        valueBytes = kryo.toBinary(value);
+        batchBytes = kryo.toBinary(batch);
+        initializeBytes = kryo.toBinary(initialize);
+
+        hot = (SerializerWithStringManifest) SerializationExtension.get(system).findSerializerFor(responsibility);
+        buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        hotResponsibilityBytes = hot.toBinary(responsibility);
+        hotBatchBytes = hot.toBinary(batch);
+        responsibilityManifest = hot.manifest(responsibility);
+        batchManifest = hot.manifest(batch);
+    }
+
+    @TearDown
+    public void tearDown(){
+        system.terminate();
+    }
+
+    @Benchmark
+    public byte[] serializeResponsibility(){
+        return kryo.toBinary(responsibility);
+    }
+
+    @Benchmark
+    public Object deserializeResponsibility(){
+        return kryo.fromBinary(responsibilityBytes, responsibility.getClass());
+    }
+
+    @Benchmark
+    public byte[] serializeAvailability(){
+        return kryo.toBinary(availability);
+    }
+
+    @Benchmark
+    public Object deserializeAvailability(){
+        return kryo.fromBinary(availabilityBytes, availability.getClass());
+    }
+
+    @Benchmark
+    public byte[] serializeValue(){
+        return kryo.toBinary(value);
+    }
+
+    @Benchmark
+    public Object deserializeValue(){
+        return kryo.fromBinary(valueBytes, value.getClass());
+    }
+
+    @Benchmark
+    public byte[] serializeBatch(){
+        return kryo.toBinary(batch);
+    }
+
+    @Benchmark
+    public Object deserializeBatch(){
+        return kryo.fromBinary(batchBytes, batch.getClass());
+    }
+
+    @Benchmark
+    public byte[] serializeInitialize(){
+        return kryo.toBinary(initialize);
+    }
+
+    @Benchmark
+    public Object deserializeInitialize(){
+        return kryo.fromBinary(initializeBytes, initialize.getClass());
+    }
+
+    @Benchmark
+    public byte[] hotSerializeResponsibility(){
+        return hot.toBinary(responsibility);
+    }
+
+    @Benchmark
+    public Object hotDeserializeResponsibility(){
+        return hot.fromBinary(hotResponsibilityBytes, responsibilityManifest);
+    }
+
+    @Benchmark
+    public byte[] hotSerializeAvailability(){
+        return hot.toBinary(availability);
+    }
+
+    @Benchmark
+    public byte[] hotSerializeValue(){
+        return hot.toBinary(value);
+    }
+
+    @Benchmark
+    public byte[] hotSerializeBatch(){
+        return hot.toBinary(batch);
+    }
+
+    @Benchmark
+    public Object hotDeserializeBatch(){
+        return hot.fromBinary(hotBatchBytes, batchManifest);
+    }
+
+    @Benchmark
+    public int bufferSerializeResponsibility(){
+        buffer.clear();
+        ((ByteBufferSerializer) hot).toBinary(responsibility, buffer);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public Object bufferDeserializeResponsibility(){
+        buffer.clear();
+        ((ByteBufferSerializer) hot).toBinary(responsibility, buffer);
+        buffer.flip();
+        return ((ByteBufferSerializer) hot).fromBinary(buffer, responsibilityManifest);
+    }
+
+    @Benchmark
+    public int bufferSerializeBatch(){
+        buffer.clear();
+        ((ByteBufferSerializer) hot).toBinary(batch, buffer);
+        return buffer.position();
+    }
+}
@@ -4,7 +4,12 @@ import akka.actor.Props;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Class for cluster computing
@@ -23,6 +28,25 @@ class Aggregator extends AbstractActor {
     @SuppressWarnings("CanBeFinal")
     private int size;
 
+    /**
+     * number of nodes from each iteration on,
+     * which grows when points are inserted
+     * @see Resize
+     */
+    private final TreeMap<Long,Integer> sizes = new TreeMap<>();
+
+    /**
+     * Live mode : set once the current exemplars are logged
+     */
+    private boolean reported;
+
+    /**
+     * number of actors sending values.
+     * Equal to size unless block nodes are used
+     */
+    @SuppressWarnings("CanBeFinal")
+    private int actors;
+
     /**
      * Record of received values
      * It only contains those received for which
@@ -52,14 +76,41 @@ class Aggregator extends AbstractActor {
     private ArrayList<ActorRef> nodes;
 
     /**
-     * if true : print all cluster
+     * Child collecting the metrics of the nodes.
+     * Null if metrics are not enabled.
+     */
+    private ActorRef metrics;
+
+    /**
+     * Hierarchical convergence : current decision of each node
      */
-    private final boolean verbose = false;
+    private final BitSet exemplars = new BitSet();
 
     /**
-     * if true : show visual graph
+     * Hierarchical convergence : iteration reached by all the nodes of each host
      */
-    private final boolean showGraph = false;
+    private final HashMap<ActorRef,Long> hosts = new HashMap<>();
+
+    /**
+     * Snapshot : state of each node, and number of states received
+     */
+    private State[] states;
+    private int dumped;
+
+    /**
+     * Labels : exemplar of each point, and number of points labeled
+     */
+    private int[] labels;
+    private int labeled;
+
+    /**
+     * Job server to which the result is reported, and job of this aggregator.
+     * Null if the aggregator runs a single job:
+     * then it terminates the nodes and the system.
+     * @see JobServer
+     */
+    private ActorRef server;
+    private int job;
 
     /**
      * Timer for time control.
@@ -80,7 +131,24 @@ class Aggregator extends AbstractActor {
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
 
     static Props props(double[][] similarity, int size) {
-        return Props.create(Aggregator.class, () -> new Aggregator(similarity,size));
+        return props(similarity, size, size);
+    }
+
+    static Props props(double[][] similarity, int size, int actors) {
+        return props(similarity, size, actors, actors);
+    }
+
+    static Props props(double[][] similarity, int size, int actors, int reporters) {
+        return Props.create(Aggregator.class, () -> new Aggregator(similarity,size,actors,reporters));
+    }
+
+    static Props props(double[][] similarity, int size, ActorRef server, int job) {
+        return Props.create(Aggregator.class, () -> {
+            Aggregator aggregator = new Aggregator(similarity,size,size,size);
+            aggregator.server = server;
+            aggregator.job = job;
+            return aggregator;
+        });
     }
 
     /**
@@ -90,11 +158,18 @@ class Aggregator extends AbstractActor {
      *
      * @param similarity graph
      * @param size of nodes
+     * @param actors number of actors sending values,
+     *               or of sub aggregators if convergence is hierarchical
+     * @param reporters number of actors sending metrics:
+     *                  the nodes, also when convergence is hierarchical
      */
-    private Aggregator(double[][] similarity, int size){
+    private Aggregator(double[][] similarity, int size, int actors, int reporters){
         this.similarity = similarity;
         this.size = size;
+        this.actors = actors;
         this.values = new HashMap<>();
+        this.sizes.put(Long.MIN_VALUE, size);
+        if (Constant.metrics) metrics = getContext().actorOf(MetricsCollector.props(reporters), "metrics");
 
         timer = new Timer();
         timer.start();
@@ -105,7 +180,9 @@ class Aggregator extends AbstractActor {
      * {value, iteration, senderID} : values[iteration][senderID] = value.
      *
      * values[iteration] is a size+1 sized vector :
-     * values[iteration][size] contains The number of values received by the nodes for that iteration
+     * values[iteration][size] contains The number of values received by the nodes for that iteration.
+     * A value received twice, after a node rolled back to a checkpoint, is counted once:
+     * slots not received yet are NaN
      *
      * Once I get values from all nodes for a given iteration I can calculate the cluster.
      * Value = a(i,i) + r(i,i) for node i.
@@ -116,46 +193,139 @@ class Aggregator extends AbstractActor {
      * for some number of iterations
      *
      * @see Value
+     * @see Values
+     * @see Metrics
+     * @see Resize
+     * @see Shutdown
      * @return receive handler
      */
     @Override
     public Receive createReceive() {
         return receiveBuilder()
-        .match(Value.class, value -> {
-            /* HashMap vector creation */
-            if(! values.containsKey(value.iteration))
-                values.put(value.iteration,new double[size+1]);
+        .match(Value.class, value -> collect(value.value, value.sender, value.iteration))
+        .match(Values.class, msg -> {
+            for (int i = 0; i < msg.values.length; i++) collect(msg.values[i], msg.from + i, msg.iteration);
+        })
+        .match(HostProgress.class, this::progressHandler)
+        .match(Metrics.class, msg -> metrics.forward(msg, getContext()))
+        .match(Resize.class, this::resizeHandler)
+        .match(Shutdown.class, msg -> getContext().become(killMode, true))
+        .build();
+    }
+
+    /**
+     * Points were inserted: from the epoch on,
+     * the cluster is computed over the new size.
+     * Values of those iterations received so far are kept
+     * @param msg received
+     * @see Dispatcher
+     */
+    private void resizeHandler(Resize msg){
+        sizes.put(msg.epoch, msg.size);
+        for (Map.Entry<Long,double[]> entry : values.entrySet()) {
+            if (entry.getKey() < msg.epoch) continue;
+            double[] current = entry.getValue();
+            double[] grown = empty(msg.size);
+            System.arraycopy(current, 0, grown, 0, size);
+            grown[msg.size] = current[size];
+            entry.setValue(grown);
+        }
+        actors += msg.size - size;
+        size = msg.size;
+    }
+
+    /**
+     * Hierarchical convergence.
+     * The exemplars change at an iteration only if some node flips at that iteration,
+     * so the last flip plays the role of previousClusterIteration.
+     * Once every host reported an iteration more than enoughIterations past the last flip,
+     * the sub aggregators are terminated together with their nodes.
+     * If labels are required and the graph is not held here,
+     * the nodes are asked their labels first, through the sub aggregators.
+     *
+     * @param msg received
+     * @see SubAggregator
+     */
+    private void progressHandler(HostProgress msg){
+        for (int p = 0; p < msg.changed.length; p++) exemplars.set(msg.changed[p], msg.exemplar[p]);
+        if (msg.lastFlip > previousClusterIteration) previousClusterIteration = msg.lastFlip;
+        hosts.put(sender(), msg.iteration);
 
-            /* save the value into the vector refereed to iteration value */
-            double[] current = values.get(value.iteration);
-            current[value.sender] = value.value;
+        if (hosts.size() < actors) return;
+        if (Collections.min(hosts.values()) - previousClusterIteration > Constant.enoughIterations) {
+            previousCluster = new ArrayList<>();
+            for (int i = exemplars.nextSetBit(0); i >= 0; i = exemplars.nextSetBit(i + 1)) previousCluster.add(i);
 
-            /* increase the number of value received refereed to iteration value */
-            current[size] += 1;
+            /* without the graph the nodes label their points, reached through the sub aggregators */
+            if (Constant.labels && similarity == null) {
+                nodes = new ArrayList<>(hosts.keySet());
+                label();
+                return;
+            }
+            for (ActorRef host : hosts.keySet())
+                host.tell(akka.actor.PoisonPill.getInstance(), ActorRef.noSender());
+            getContext().become(killMode, true);
+            if (Constant.labels && similarity != null) write(Labels.assign(similarity, previousCluster));
+            done();
+        }
+    }
 
-            /* can compute the cluster */
-            if(current[size] == size){
-                ArrayList<Integer> exemplars = new ArrayList<>();
-                for(int i = 0; i < size; i++)
-                    if(current[i] > 0 && !exemplars.contains(i))
-                        exemplars.add(i);
+    /**
+     * Save a value and, if all the values of the iteration are arrived,
+     * compute the cluster
+     * @param value a(i,i) + r(i,i)
+     * @param sender i
+     * @param iteration to which it refers
+     */
+    private void collect(double value, int sender, long iteration){
+        int size = sizes.floorEntry(iteration).getValue();
 
-                int[] e = new int[exemplars.size()];
-                for(int i= 0; i < exemplars.size(); i++) e[i] = exemplars.get(i);
+        /* HashMap vector creation */
+        if(! values.containsKey(iteration))
+            values.put(iteration,empty(size));
 
-                if(!exemplars.equals(previousCluster)){
-                    previousCluster = exemplars;
-                    previousClusterIteration = value.iteration;
-                    //System.out.println(previousClusterIteration);
+        /* save the value into the vector refereed to iteration value */
+        double[] current = values.get(iteration);
+        boolean received = !Double.isNaN(current[sender]);
+        current[sender] = value;
 
+        /* increase the number of value received refereed to iteration value */
+        if(!received) current[size] += 1;
+
+        /* can compute the cluster */
+        if(current[size] == size){
+            ArrayList<Integer> exemplars = new ArrayList<>();
+            for(int i = 0; i < size; i++)
+                if(current[i] > 0)
+                    exemplars.add(i);
+
+            if(!exemplars.equals(previousCluster)){
+                previousCluster = exemplars;
+                previousClusterIteration = iteration;
+                reported = false;
+                //System.out.println(previousClusterIteration);
+
+            }
+            if(iteration - previousClusterIteration > Constant.enoughIterations){
+                if(Constant.live && server == null) {
+                    if(!reported) log.info("Converged at " + previousClusterIteration + " on " + size + " points. Exemplars: " + previousCluster);
+                    reported = true;
                 }
-                if(value.iteration - previousClusterIteration > Constant.enoughIterations){
-                    getContext().become(killMode,true);
-                }
-                values.remove(value.iteration);
+                else if(server != null) done();
+                else getContext().become(killMode,true);
             }
-        })
-        .build();
+            values.remove(iteration);
+        }
+    }
+
+    /**
+     * @param size number of nodes
+     * @return values of an iteration, none received
+     */
+    private static double[] empty(int size){
+        double[] ret = new double[size + 1];
+        Arrays.fill(ret, 0, size, Double.NaN);
+        return ret;
     }
 
     /**
@@ -173,55 +343,136 @@ class Aggregator extends AbstractActor {
      * that were already queued in the mailbox.
      */
     private final Receive killMode = receiveBuilder()
-            .match(Value.class, msg -> {
-                if(nodes == null) nodes = new ArrayList<>();
-                if(!nodes.contains(sender())) nodes.add(sender());
-                if(nodes.size() == size){
-                    for(ActorRef actorRef : nodes)
-                        actorRef.tell(akka.actor.PoisonPill.getInstance(),ActorRef.noSender());
-
-                    timer.stop();
-                    log.info("Job done U_U after " + previousClusterIteration + " iterations and " + timer);
-                    context().system().terminate();
-                }
-            })
+            .match(Value.class, msg -> kill())
+            .match(Values.class, msg -> kill())
+            .match(Metrics.class, msg -> metrics.forward(msg, getContext()))
             .build();
 
-    /*
-    *//**
-     * Creating the cluster
-     *
-     * It is said that a node "n" belongs to a cluster with reference to an exemplar "e"
-     * if forall of the other exemplars emerged "o" : s(n,e) greater than s(n,o)
-     *
-     * @param exemplars vector
-     * @param verbose if True : print all cluster
-     * @param showGraph if True : show visual graph
-     * @return cluster : i belong to cluster[i]
-     *//*
-    private int[] buildCluster(int[] exemplars, boolean verbose, boolean showGraph){
-        int[] cluster = new int[size];
-
-        for (int i = 0; i < size; i++) {
-            Double max = Util.min_double;
-            int index = -1;
-            for (int k : exemplars) {
-                if (max < similarity[i][k]) {
-                    max = similarity[i][k];
-                    index = k;
-                }
+    /**
+     * Track the sender of a value.
+     * When all the actors are known, terminate them.
+     * If a snapshot is required, ask them their state first
+     */
+    private void kill(){
+        if(nodes == null) nodes = new ArrayList<>();
+        if(!nodes.contains(sender())) nodes.add(sender());
+        if(nodes.size() == actors){
+            if(Constant.snapshot && !Constant.blockNodes){
+                states = new State[actors];
+                for(ActorRef actorRef : nodes) actorRef.tell(new Dump(), self());
+                getContext().become(dumpMode, true);
+                return;
             }
-            cluster[i] = index;
+            label();
+        }
+    }
+
+    /**
+     * Receiving active handler while the nodes send their state
+     */
+    private final Receive dumpMode = receiveBuilder()
+            .match(State.class, this::stateHandler)
+            .match(Metrics.class, msg -> metrics.forward(msg, getContext()))
+            .matchAny(msg -> {})
+            .build();
+
+    /**
+     * Collect the state of a node.
+     * When all the states are arrived, write the snapshot and terminate the nodes
+     * @param state received
+     * @see Snapshot
+     */
+    private void stateHandler(State state){
+        states[state.sender] = state;
+        if(++dumped < actors) return;
+        try {
+            Snapshot.write(Constant.snapshotFile, states);
+            log.info("Snapshot written to " + Constant.snapshotFile);
+        } catch (java.io.IOException e) {
+            log.error(e, "Snapshot not written");
+        }
+        label();
+    }
+
+    /**
+     * If labels are required, ask the nodes the exemplar of their points,
+     * otherwise terminate them
+     * @see Labels
+     */
+    private void label(){
+        if(!Constant.labels){
+            terminate();
+            return;
+        }
+        labels = new int[size];
+        Label msg = new Label(Labels.toArray(previousCluster));
+        for(ActorRef actorRef : nodes) actorRef.tell(msg, self());
+        getContext().become(labelMode, true);
+    }
+
+    /**
+     * Receiving active handler while the nodes send their labels
+     */
+    private final Receive labelMode = receiveBuilder()
+            .match(Labeled.class, this::labeledHandler)
+            .match(Metrics.class, msg -> metrics.forward(msg, getContext()))
+            .matchAny(msg -> {})
+            .build();
+
+    /**
+     * Collect the labels of some points.
+     * When all the points are labeled, write them and terminate the nodes
+     * @param msg received
+     */
+    private void labeledHandler(Labeled msg){
+        System.arraycopy(msg.exemplars, 0, labels, msg.from, msg.exemplars.length);
+        labeled += msg.exemplars.length;
+        if(labeled < size) return;
+        write(labels);
+        terminate();
+    }
+
+    /**
+     * Write the labels to Constant.labelsFile
+     * @param labels exemplar of each point
+     */
+    private void write(int[] labels){
+        try {
+            Labels.write(Constant.labelsFile, labels);
+            log.info("Labels written to " + Constant.labelsFile);
+        } catch (java.io.IOException e) {
+            log.error(e, "Labels not written");
         }
+    }
 
-        if(verbose)
-            for (int i = 0; i < size; i++)
-                log.info(i + " belong to " + cluster[i]);
+    /**
+     * Send a poisoned message to all the nodes and terminate
+     */
+    private void terminate(){
+        for(ActorRef actorRef : nodes)
+            actorRef.tell(akka.actor.PoisonPill.getInstance(),ActorRef.noSender());
 
-        if(showGraph) (new VisualGraph(exemplars,cluster)).show(800,800);
-        return cluster;
+        done();
     }
 
+    /**
+     * Log the result and terminate the system.
+     * Under a job server, report the result and stop:
+     * the nodes are reset by the server
+     */
+    private void done(){
+        timer.stop();
+        log.info("Job done U_U after " + previousClusterIteration + " iterations and " + timer);
+        log.info("Exemplars: " + previousCluster);
+        if(server != null) {
+            server.tell(new JobDone(job, previousCluster, previousClusterIteration), self());
+            getContext().stop(self());
+            return;
+        }
+        context().system().terminate();
+    }
+
+    /*
     *//**
      * Checks if the calculated cluster is different from the last different calculated previously
      * @param cluster to check if is changed
@@ -0,0 +1,440 @@
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+
+/**
+ * Class for block node management.
+ * A block node owns a contiguous range of points [from, to):
+ * it holds their similarity rows and columns
+ * and computes responsibilities and availabilities
+ * for the whole range in tight loops.
+ * Only the values crossing the range go over messages,
+ * one dense sub-matrix for each other block per iteration.
+ *
+ * @author Simone Schirinzi
+ */
+class BlockNode extends AbstractActor {
+    // Connection variable
+
+    /**
+     * Link to the actor responsible for initializing the nodes.
+     * Received when creating the node.
+     */
+    @SuppressWarnings("CanBeFinal")
+    private ActorRef dispatcher;
+
+    /**
+     * Link to the actor responsible for generating the cluster.
+     * Received when creating the node.
+     */
+    @SuppressWarnings("CanBeFinal")
+    private ActorRef aggregator;
+
+    /**
+     * Counters of the current iteration.
+     * Null if metrics are not enabled.
+     */
+    private Meter meter;
+
+    //------------------
+
+    // Received from InitializeBlock
+
+    /**
+     * Block identifier
+     */
+    private int block;
+
+    /**
+     * First point of the block
+     */
+    private int from;
+
+    /**
+     * Number of points of the block
+     */
+    private int length;
+
+    /**
+     * Similarity rows of the points of the block.
+     * s_rows[i][k] = s(from + i, k)
+     */
+    private double[][] s_rows;
+
+    /**
+     * Similarity columns of the points of the block.
+     * s_cols[k][i] = s(i, from + k)
+     */
+    private double[][] s_cols;
+
+    //------------------
+
+    // Received from Blocks
+
+    /**
+     * Vector containing references to all blocks
+     */
+    private ActorRef[] blocks;
+
+    /**
+     * Block b owns points [bounds[b], bounds[b+1])
+     */
+    private int[] bounds;
+
+    /**
+     * Number of points
+     */
+    private int size;
+
+    //------------------
+
+    // Iteration variable
+
+    /**
+     * Indicates the current iteration number.
+     */
+    private long iteration;
+
+    /**
+     * Responsibilities received by the points of the block.
+     * r_cols[k][i] = r(i, from + k)
+     */
+    private double[][] r_cols;
+
+    /**
+     * Availabilities received by the points of the block.
+     * a_rows[i][k] = a(from + i, k)
+     */
+    private double[][] a_rows;
+
+    /**
+     * New values of the block before they are split by destination.
+     * By row for responsibilities, by column for availabilities
+     */
+    private double[][] scratch;
+
+    /**
+     * r_targets[b] is true if some s(i,k) != -INF
+     * with i in this block and k in block b.
+     * Responsibilities are sent to block b
+     * and availabilities are received from it.
+     */
+    private boolean[] r_targets;
+
+    /**
+     * a_targets[b] is true if some s(i,k) != -INF
+     * with i in block b and k in this block.
+     * Availabilities are sent to block b
+     * and responsibilities are received from it.
+     */
+    private boolean[] a_targets;
+
+    /**
+     * Number of blocks from which responsibilities are received, this one included
+     */
+    private int r_expected;
+
+    /**
+     * Number of blocks from which availabilities are received, this one included
+     */
+    private int a_expected;
+
+    /**
+     * Counter of blocks whose responsibilities are received.
+     * It is initialized at 0 at the beginning of each iteration
+     */
+    private int r_received;
+
+    /**
+     * Counter of blocks whose availabilities are received.
+     * It is initialized at 0 at the beginning of each iteration
+     */
+    private int a_received;
+
+    /**
+     * Create a block node
+     * Send a hello message to the dispatcher
+     * @param aggregator link to aggregator
+     * @param dispatcher link to dispatcher
+     */
+    public BlockNode(ActorRef aggregator, ActorRef dispatcher){
+        this.aggregator = aggregator;
+        this.dispatcher = dispatcher;
+        this.iteration = 0;
+        this.r_received = 0;
+        this.a_received = 0;
+        if (Constant.metrics) meter = new Meter(getContext().system(), self());
+        dispatcher.tell(new Self(null), self());
+    }
+
+    /**
+     * The termination phase is started by the aggregator.
+     * This also ends the systems connected to the nodes.
+     */
+    @Override public void postStop() {getContext().system().terminate();}
+
+    /**
+     * Receive builder
+     * @return Block node message manager
+     * @see InitializeBlock
+     * @see Load
+     * @see Blocks
+     * @see Start
+     * @see Die
+     * @see BlockResponsibility
+     * @see BlockAvailability
+     * @see Label
+     */
+    @Override public Receive createReceive() {
+        return receiveBuilder()
+                .match(InitializeBlock.class, this::initializeHandler)
+                .match(Load.class, this::loadHandler)
+                .match(Blocks.class, this::blocksHandler)
+                .match(Die.class, msg -> System.out.println(msg + " Not useful actor..."))
+                .match(Start.class, msg -> sendResponsibility())
+                .match(BlockResponsibility.class, this::responsibilityHandler)
+                .match(BlockAvailability.class, this::availabilityHandler)
+                .match(Label.class, msg -> {
+                    int[] labels = new int[length];
+                    for (int i = 0; i < length; i++) labels[i] = Labels.label(s_rows[i], from + i, msg.exemplars);
+                    sender().tell(new Labeled(from, labels), self());
+                })
+                .build();
+    }
+
+    /**
+     * Handler for the initialization message
+     * @param init received message
+     */
+    private void initializeHandler(InitializeBlock init){
+        this.block = init.blockID;
+        this.from = init.from;
+        this.length = init.similarity_rows.length;
+        this.s_rows = init.similarity_rows;
+        this.s_cols = init.similarity_cols;
+    }
+
+    /**
+     * Handler for the initialization by reference:
+     * the rows and columns of the block are read
+     * from the copy of the similarity file on this host.
+     * If it cannot be read, the dispatcher aborts the run
+     * @param load received message
+     */
+    private void loadHandler(Load load){
+        double[][] rows = new double[load.to - load.from][];
+        double[][] cols = new double[load.to - load.from][];
+        try {
+            SimilarityFile file = SimilarityFile.shared(load.file, load.size, load.entries);
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = file.denseRow(load.from + i);
+                cols[i] = file.denseCol(load.from + i);
+            }
+        } catch (java.io.IOException e) {
+            System.out.println("Similarity file of block " + load.id + " not read: " + e.getMessage());
+            dispatcher.tell(new LoadFailed(load.id, e.getMessage()), self());
+            return;
+        }
+        initializeHandler(new InitializeBlock(rows, cols, load.from, load.id));
+    }
+
+    /**
+     * Handler for blocks message
+     *
+     * Find the blocks with which values are exchanged.
+     * If s(i,k) = -INF for all i in the block b and k in this block
+     * b does not send responsibilities to this block
+     * and does not receive availabilities from it.
+     *
+     * r_cols[k][i] is set to -INF where s(i,k) is -INF,
+     * as the node does with r_col.
+     *
+     * When finished all operations
+     * send a Ready() message to the dispatcher.
+     *
+     * @param msg received message
+     */
+    private void blocksHandler(Blocks msg){
+        this.blocks = msg.array;
+        this.bounds = msg.bounds;
+        this.size = msg.size;
+
+        r_cols = new double[length][size];
+        a_rows = new double[length][size];
+        scratch = new double[length][size];
+        r_targets = new boolean[blocks.length];
+        a_targets = new boolean[blocks.length];
+
+        for (int b = 0; b < blocks.length; b++)
+            for (int k = bounds[b]; k < bounds[b + 1]; k++)
+                for (int i = 0; i < length; i++) {
+                    if (!Util.isMinDouble(s_rows[i][k])) r_targets[b] = true;
+                    if (!Util.isMinDouble(s_cols[i][k])) a_targets[b] = true;
+                    else r_cols[i][k] = Util.min_double;
+                }
+
+        /* this block is always counted: it holds the preferences */
+        r_targets[block] = a_targets[block] = true;
+        r_expected = a_expected = 0;
+        for (int b = 0; b < blocks.length; b++) {
+            if (a_targets[b]) r_expected++;
+            if (r_targets[b]) a_expected++;
+        }
+
+        dispatcher.tell(new Ready(), self());
+    }
+
+    /**
+     * Receive the responsibilities from a block.
+     * values[i * length + k] = r(bounds[sender] + i, from + k)
+     * @param msg received
+     */
+    private void responsibilityHandler(BlockResponsibility msg){
+        int rows = bounds[msg.sender + 1] - bounds[msg.sender];
+        storeResponsibility(msg.values, bounds[msg.sender], rows);
+        r_received++;
+        if (meter != null) meter.responsibility();
+
+        checkResponsibility();
+    }
+
+    /**
+     * Receive the availabilities from a block.
+     * values[k * length + i] = a(from + i, bounds[sender] + k)
+     * @param msg received
+     */
+    private void availabilityHandler(BlockAvailability msg){
+        int cols = bounds[msg.sender + 1] - bounds[msg.sender];
+        storeAvailability(msg.values, bounds[msg.sender], cols);
+        a_received++;
+        if (meter != null) meter.availability();
+
+        checkAvailability();
+    }
+
+    /**
+     * If all the responsibilities are arrived
+     * submits the availability
+     */
+    private void checkResponsibility(){
+        if (r_received == r_expected) {
+            r_received = 0;
+
+            sendAvailability();
+        }
+    }
+
+    /**
+     * If all the availabilities are arrived
+     * ends the iteration, sends the values to the aggregator
+     * and submits the responsibility
+     */
+    private void checkAvailability(){
+        if (a_received == a_expected) {
+            a_received = 0;
+
+            if (this.iteration % (Constant.sendEach) == (Constant.sendEach - 1)) {
+                double[] values = new double[length];
+                for (int k = 0; k < length; k++)
+                    values[k] = r_cols[k][from + k] + a_rows[k][from + k];
+                aggregator.tell(new Values(values, from, iteration), self());
+            }
+            if (meter != null) aggregator.tell(meter.iteration(block, iteration), self());
+
+            sendResponsibility();
+
+            this.iteration++;
+        }
+    }
+
+    /**
+     * Damp responsibilities into r_cols
+     * @param values r(first + i, from + k) at i * length + k
+     * @param first first point of the sender block
+     * @param rows of the sender block
+     */
+    private void storeResponsibility(double[] values, int first, int rows){
+        for (int k = 0; k < length; k++) {
+            double[] r = r_cols[k];
+            double[] s = s_cols[k];
+            for (int i = 0; i < rows; i++)
+                if (!Util.isMinDouble(s[first + i]))
+                    r[first + i] = (r[first + i] * Constant.lambda) + (values[i * length + k] * (1 - Constant.lambda));
+        }
+    }
+
+    /**
+     * Damp availabilities into a_rows
+     * @param values a(from + i, first + k) at k * length + i
+     * @param first first point of the sender block
+     * @param cols of the sender block
+     */
+    private void storeAvailability(double[] values, int first, int cols){
+        for (int i = 0; i < length; i++) {
+            double[] a = a_rows[i];
+            for (int k = 0; k < cols; k++)
+                a[first + k] = (a[first + k] * Constant.lambda) + (values[k * length + i] * (1 - Constant.lambda));
+        }
+    }
+
+    /**
+     * Compute the responsibilities of all the rows of the block.
+     *
+     * For each row the maximum and the second maximum
+     * of {a(i,k) + s(i,k)} are computed once,
+     * as the node does when sendOptimize is set,
+     * by the block kernel of all the rows.
+     * Then r(i,k) is copied in a sub-matrix for each destination block.
+     * The sub-matrix of this block is sent to itself:
+     * it stays in the local mailbox and is never serialized.
+     */
+    private void sendResponsibility(){
+        double[][] out = new double[blocks.length][];
+        for (int b = 0; b < blocks.length; b++)
+            if (r_targets[b]) out[b] = new double[length * (bounds[b + 1] - bounds[b])];
+
+        Kernels.responsibilities(s_rows, a_rows, 0, length, size, scratch);
+
+        for (int b = 0; b < blocks.length; b++) {
+            if (!r_targets[b]) continue;
+            int cols = bounds[b + 1] - bounds[b];
+            for (int i = 0; i < length; i++) System.arraycopy(scratch[i], bounds[b], out[b], i * cols, cols);
+        }
+
+        for (int b = 0; b < blocks.length; b++)
+            if (r_targets[b]) {
+                BlockResponsibility msg = new BlockResponsibility(out[b], block);
+                if (meter != null && b != block) meter.sent(msg);
+                blocks[b].tell(msg, self());
+            }
+    }
+
+    /**
+     * Compute the availabilities of all the columns of the block.
+     *
+     * For each column the sum of the positive responsibilities is computed once,
+     * as the node does when sendOptimize is set,
+     * by the block kernel of all the columns.
+     * Then a(i,k) is copied in a sub-matrix for each destination block.
+     * The sub-matrix of this block is sent to itself, as for responsibilities.
+     */
+    private void sendAvailability(){
+        double[][] out = new double[blocks.length][];
+        for (int b = 0; b < blocks.length; b++)
+            if (a_targets[b]) out[b] = new double[length * (bounds[b + 1] - bounds[b])];
+
+        Kernels.availabilities(r_cols, 0, length, size, from, scratch);
+
+        for (int b = 0; b < blocks.length; b++) {
+            if (!a_targets[b]) continue;
+            int rows = bounds[b + 1] - bounds[b];
+            for (int k = 0; k < length; k++) System.arraycopy(scratch[k], bounds[b], out[b], k * rows, rows);
+        }
+
+        for (int b = 0; b < blocks.length; b++)
+            if (a_targets[b]) {
+                BlockAvailability msg = new BlockAvailability(out[b], block);
+                if (meter != null && b != block) meter.sent(msg);
+                blocks[b].tell(msg, self());
+            }
+    }
+}
@@ -0,0 +1,121 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class for the checkpoints of a node, used to recover a run
+ * after the failure of a lookup system.
+ *
+ * Every checkpointEach iterations each node writes r_col and a_row
+ * as they are at the end of the iteration, in their own layout.
+ * Two files are kept for each node, for alternate checkpoints,
+ * so that the last checkpoint reached by all the nodes is still on disk
+ * while the fastest nodes write the next one.
+ *
+ * Layout, big endian, memory mapped:
+ * magic, iteration, length of r_col, length of a_row, r_col, a_row.
+ * The iteration is written last, -1 while the file is being written.
+ *
+ * @author Simone Schirinzi
+ */
+class Checkpoint {
+    /**
+     * "APCK"
+     */
+    private static final int magic = 0x4150434B;
+
+    private static final int header = 4 + 8 + 4 + 4;
+
+    /**
+     * Iterations between two checkpoints, 1 if they are disabled,
+     * so that it is never a zero divisor
+     */
+    private static final int each = Math.max(1, Constant.checkpointEach);
+
+    /**
+     * Last iteration of the node included in the checkpoint
+     */
+    final long iteration;
+
+    final double[] r_col;
+    final double[] a_row;
+
+    private Checkpoint(long iteration, double[] r_col, double[] a_row){
+        this.iteration = iteration;
+        this.r_col = r_col;
+        this.a_row = a_row;
+    }
+
+    /**
+     * @param node identifier
+     * @param iteration of the checkpoint
+     * @return file of the checkpoint
+     */
+    static File file(int node, long iteration){
+        return new File(Constant.checkpointDir, "node-" + node + "-" + (iteration / each) % 2 + ".ckpt");
+    }
+
+    /**
+     * @param iteration just ended
+     * @return true if a checkpoint of it is written
+     */
+    static boolean due(long iteration){
+        return Constant.checkpointEach > 0 && (iteration + 1) % each == 0;
+    }
+
+    /**
+     * Write the state of a node
+     * @param file output file
+     * @param iteration last iteration of the node
+     * @param r_col responsibilities received, at the end of the iteration
+     * @param a_row availabilities received, at the end of the iteration
+     * @throws IOException on write error
+     */
+    static void write(File file, long iteration, double[] r_col, double[] a_row) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+
+        long bytes = header + 8L * (r_col.length + a_row.length);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.truncate(bytes);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            buffer.putInt(magic);
+            buffer.putLong(-1);
+            buffer.putInt(r_col.length);
+            buffer.putInt(a_row.length);
+            buffer.asDoubleBuffer().put(r_col);
+            buffer.position(header + 8 * r_col.length);
+            buffer.asDoubleBuffer().put(a_row);
+            buffer.force();
+            buffer.putLong(4, iteration);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Read the state of a node
+     * @param file input file
+     * @return checkpoint, null if the file is missing or incomplete
+     * @throws IOException on read error
+     */
+    static Checkpoint read(File file) throws IOException {
+        if (!file.isFile() || file.length() < header) return null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != magic) return null;
+            long iteration = buffer.getLong();
+            if (iteration < 0) return null;
+
+            double[] r_col = new double[buffer.getInt()];
+            double[] a_row = new double[buffer.getInt()];
+            if (channel.size() != header + 8L * (r_col.length + a_row.length)) return null;
+            buffer.asDoubleBuffer().get(r_col);
+            buffer.position(header + 8 * r_col.length);
+            buffer.asDoubleBuffer().get(a_row);
+            return new Checkpoint(iteration, r_col, a_row);
+        }
+    }
+}
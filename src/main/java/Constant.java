@@ -28,4 +28,238 @@ class Constant {
      * a random value is added to the input values.
      */
     public static final double sigma = 0;
+
+    /**
+     * If true, nodes group their outgoing values by destination host
+     * and send one batch per host per iteration.
+     * A router on each host hands the values to its nodes as vectors.
+     */
+    public static final boolean batch = false;
+
+    /**
+     * If true and messages are batched, nodes write the values
+     * for the nodes of their own host straight into the inboxes of the router,
+     * in shared memory: only the values for other hosts are sent as batches.
+     * @see Exchange
+     */
+    public static final boolean shared = true;
+
+    /**
+     * Credits of a node towards each router when messages are batched,
+     * 0 : no flow control.
+     * A node sends a batch only while it holds a credit of the receiving router,
+     * given back when the router has handled the batch.
+     * @see Flow
+     */
+    public static final int credits = 0;
+
+    /**
+     * Maximum number of values in a batch under flow control.
+     * Larger batches are split in chunks, each taking one credit
+     */
+    public static final int creditChunk = 4096;
+
+    /**
+     * If true, the similarity graph is loaded and dispatched in sparse form:
+     * only pairs with s(i,j) != -INF are stored and sent.
+     * @see SparseGraph
+     */
+    public static final boolean sparse = false;
+
+    /**
+     * If true and the input is a binary similarity file,
+     * the dispatcher sends each node only the location of the file and its rows:
+     * the nodes map the copy of the file on their host and read their vectors,
+     * in parallel, instead of receiving them.
+     * Every host needs a copy of the file at the same absolute location.
+     * Not with a warm start, whose seeds are aligned by the dispatcher.
+     * Inserted points are still sent.
+     * @see Load
+     */
+    public static final boolean nodeLoad = false;
+
+    /**
+     * If true, each actor owns a contiguous range of points
+     * instead of a single point.
+     * @see BlockNode
+     */
+    public static final boolean blockNodes = false;
+
+    /**
+     * Number of block nodes deployed on each host
+     */
+    public static final int blocksPerHost = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Quantile of the loaded similarities used as preference
+     * when the preferences are computed locally.
+     * 0.5 : median, 0 : minimum (fewer clusters), any other value : that percentile / 100
+     * @see Quantiles
+     */
+    public static final double preferenceQuantile = 0.5;
+
+    /**
+     * If true, the preference quantile is estimated by a streaming sketch
+     * instead of an exact selection over a copy of the values.
+     * The sketch is fed while the triple file is parsed
+     * and, on insertion, while the rows of the loaded graph are read.
+     * The triples are still held to build the graph:
+     * what is saved is the copy of the values and the selection over it.
+     * @see Quantiles.Sketch
+     */
+    public static final boolean approximatePreference = false;
+
+    /**
+     * If true, nodes report the metrics of each iteration
+     * and the aggregator exports them as CSV.
+     * @see MetricsCollector
+     */
+    public static final boolean metrics = false;
+
+    /**
+     * CSV file of the metrics of each iteration.
+     * The metrics of each host are written next to it, in hosts-metricsFile
+     */
+    public static final String metricsFile = "metrics.csv";
+
+    /**
+     * If true, nodes report only the flips of their local decision,
+     * plus their progress every progressEach iterations,
+     * to a sub aggregator on their host.
+     * Not used by block nodes.
+     * @see SubAggregator
+     */
+    public static final boolean hierarchical = false;
+
+    /**
+     * Each number of iterations the nodes report their progress
+     * when convergence is hierarchical.
+     * Termination is detected at most progressEach - 1 iterations late.
+     */
+    public static final int progressEach = 5;
+
+    /**
+     * If true, nodes store similarities, responsibilities and availabilities
+     * in single precision and exchange them as floats, one by one or in batches.
+     * Values are still computed in double precision and rounded when stored.
+     * Not used by block nodes.
+     * @see FloatInitialize
+     */
+    public static final boolean float32 = false;
+
+    /**
+     * Staleness bound, in iterations, of the asynchronous mode.
+     * 0 : lock-step iterations.
+     * Otherwise a node computes and sends its values
+     * as soon as every neighbor is at most staleness iterations behind it,
+     * using the latest values received so far, still damped by lambda.
+     * Not used with batching, since the router hands the values by iteration,
+     * nor by block nodes.
+     */
+    public static final int staleness = 0;
+
+    /**
+     * If true, nodes compact their dense vectors
+     * to the neighbors with finite similarity,
+     * so that the kernels scan contiguous memory with no index.
+     * A node whose s(k,k) is -INF keeps its dense vectors.
+     * The exemplars are the same.
+     * @see Kernels
+     */
+    public static final boolean compact = true;
+
+    /**
+     * If true, at termination the aggregator collects the responsibilities
+     * and availabilities of the nodes and writes them to snapshotFile.
+     * A later run started with that file as seeds resumes from them.
+     * Not used by block nodes nor with hierarchical convergence.
+     * @see Snapshot
+     */
+    public static final boolean snapshot = false;
+
+    /**
+     * Output file of the snapshot
+     */
+    public static final String snapshotFile = "state.snapshot";
+
+    /**
+     * If true, the clustering stays live after convergence:
+     * the exemplars are logged each time they converge
+     * and points can be inserted while the nodes keep iterating.
+     * Insertion uses the lock-step double precision node:
+     * not with batching, block nodes, hierarchical convergence,
+     * single precision nor the asynchronous mode.
+     * @see Insert
+     */
+    public static final boolean live = false;
+
+    /**
+     * If true, at termination each point is assigned to its most similar exemplar
+     * and the labels are written to labelsFile.
+     * Nodes label their own points; in hierarchical convergence
+     * the aggregator labels the dense graph if it holds it,
+     * otherwise the sub aggregators forward the request to their nodes.
+     * @see Labels
+     */
+    public static final boolean labels = false;
+
+    /**
+     * Output file of the labels
+     */
+    public static final String labelsFile = "labels.txt";
+
+    /**
+     * Each number of iterations the nodes write a checkpoint of their state
+     * to checkpointDir, 0 : no checkpoint.
+     * If a lookup system fails, the dispatcher replaces its nodes
+     * on the remaining hosts and all the nodes roll back
+     * to the last checkpoint written by every node.
+     * Two checkpoints are kept, so it must exceed the iterations
+     * between the slowest and the fastest node.
+     * Only with the lock-step double precision node:
+     * not with batching, block nodes, hierarchical convergence,
+     * single precision nor the asynchronous mode.
+     * @see Checkpoint
+     */
+    public static final int checkpointEach = 0;
+
+    /**
+     * Directory of the checkpoints on each host.
+     * A replaced node reads the checkpoint of the failed one,
+     * so it must be shared by the hosts, or the failed host restarted.
+     */
+    public static final String checkpointDir = "checkpoints";
+
+    /**
+     * If true, the vectors of Initialize are compressed when serialized:
+     * runs of -INF, XOR coded similarities and gaps between identifiers.
+     * Lossless unless quantizeInitialize.
+     * @see RowCodec
+     */
+    public static final boolean compressInitialize = true;
+
+    /**
+     * If true, compressed Initialize vectors are rounded to single precision,
+     * so that their similarities take about half the bits.
+     * The nodes then run on the rounded similarities.
+     */
+    public static final boolean quantizeInitialize = false;
+
+    /**
+     * If true, the actor systems use Artery remoting over Aeron UDP,
+     * configured by the *Artery.conf files, instead of classic netty.tcp remoting.
+     * Batching with credits bounds the bursts, since Artery drops
+     * the messages exceeding its outbound queue.
+     */
+    public static final boolean artery = false;
+
+    /**
+     * If true, with more than one host the nodes are placed
+     * so that points with finite similarity share a host when possible,
+     * within the share of each host given by its capacity.
+     * Only sparse graphs, loaded with sparse or from a CSR file, are planned.
+     * Otherwise nodes are assigned round robin.
+     * @see Placement
+     */
+    public static final boolean placement = true;
 }
@@ -1,38 +1,121 @@
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
+import akka.actor.Deploy;
+import akka.actor.Address;
 import akka.actor.Props;
+import akka.actor.Terminated;
+import akka.remote.RemoteScope;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.TreeMap;
 
 /**
  * Class for assigning and initializing nodes
  *
+ * Once the nodes started, points can be inserted.
+ * New nodes are deployed and initialized as the first ones,
+ * then the running nodes are held at a common iteration, the epoch,
+ * and grow their state with the new points before starting it.
+ * Insertions are processed one at a time.
+ *
+ * If checkpoints are enabled, the nodes are watched.
+ * When a lookup system fails, its nodes are replaced on the remaining hosts
+ * and all the nodes roll back to the last checkpoint written by every node.
+ *
  * @author Simone Schirinzi
  */
 class Dispatcher extends AbstractActor {
     /**
      * number of nodes
      */
-    private final int size;
+    private int size;
 
     /**
      * graph of similarity
+     * Null if the graph is sparse
      */
     private final double[][] Graph;
 
+    /**
+     * sparse graph of similarity
+     * Null if the graph is dense
+     */
+    private final SparseGraph sparse;
+
+    /**
+     * memory mapped similarity file
+     * Null if the graph is loaded in memory
+     */
+    private final SimilarityFile mapped;
+
+    /**
+     * Location of the similarity file the nodes load their vectors from.
+     * Null if the vectors are sent by the dispatcher
+     * @see Constant#nodeLoad
+     */
+    private String file;
+
+    /**
+     * Job server and job of the dispatcher, told if the job is aborted.
+     * Null if the dispatcher runs alone
+     */
+    private ActorRef server;
+    private int job;
+
+    /**
+     * Set once a node failed to load its vectors
+     */
+    private boolean aborted;
+
+    /**
+     * number of block nodes.
+     * 0 if each node owns a single point
+     */
+    private final int blocks;
+
+    /**
+     * State of a previous run, sent with the initialization.
+     * Null for a cold start. Not used by block nodes
+     * @see Snapshot
+     */
+    private Snapshot seeds;
+
+    /**
+     * Block b owns points [bounds[b], bounds[b+1]).
+     * Null if each node owns a single point
+     */
+    private int[] bounds;
+
     /**
      * vector of link to nodes
      */
-    private final ActorRef[] array;
+    private ActorRef[] array;
+
+    /**
+     * vector of link to the router of each node.
+     * Null if messages are not batched
+     */
+    private ActorRef[] routers;
 
     /**
      * Initialized value at 0.
-     * At any time it indicates what is the index
-     * of the next node to initiate.
+     * At any time it indicates how many nodes
+     * have been initiated.
      * When it comes to size,
      * we know that we have initiated a sufficient number of nodes
      * to start the algorithm.
      */
     private int index;
 
+    /**
+     * Next point to assign to a node deployed for any point.
+     * Nodes deployed for a given point, as planned by Placement, get that point
+     */
+    private int free;
+
     /**
      *
      */
@@ -48,15 +131,201 @@ class Dispatcher extends AbstractActor {
      */
     private int ready;
 
+    /**
+     * Set once the first nodes are started
+     */
+    private boolean started;
+
+    /**
+     * Lookup systems and aggregator of the replaced nodes.
+     * Null if the nodes are not watched
+     * @see Supervise
+     */
+    private Address[] hosts;
+    private ActorRef aggregator;
+
+    /**
+     * Addresses of the failed lookup systems
+     */
+    private final HashSet<Address> dead = new HashSet<>();
+
+    /**
+     * Nodes that wrote the checkpoint of each iteration,
+     * until all of them did
+     */
+    private final TreeMap<Long,BitSet> checkpoints = new TreeMap<>();
+
+    /**
+     * Last iteration whose checkpoint is written by every node, -1 if none
+     */
+    private long consistent = -1;
+
+    /**
+     * Identifiers of the failed nodes waiting for a replacement
+     */
+    private final ArrayDeque<Integer> lost = new ArrayDeque<>();
+
+    /**
+     * Replacements of the current recovery, by identifier
+     */
+    private final BitSet replaced = new BitSet();
+
+    /**
+     * Incarnation of the nodes, increased at each recovery
+     */
+    private int generation;
+
+    /**
+     * Set while the nodes roll back, with the checkpoint they roll back to
+     */
+    private boolean recovering;
+    private long restart;
+
+    /**
+     * Answers expected from the nodes rolling back,
+     * and whether some node lacks the checkpoint
+     */
+    private int expected;
+    private boolean missing;
+
+    /**
+     * Insertions waiting for the current one
+     */
+    private final ArrayDeque<Insert> inserts = new ArrayDeque<>();
+
+    /**
+     * Insertion in progress, null if none
+     */
+    private Growth growth;
+
+    /**
+     * State of an insertion
+     */
+    private static class Growth {
+        /**
+         * number of nodes before and after the insertion
+         */
+        final int from, to;
+
+        /**
+         * s(from + n, *) and s(*, from + n) of each new point n
+         */
+        final double[][] rows, cols;
+
+        /**
+         * s(k, from + n) and s(from + n, k) of each current point k
+         */
+        final double[][] extRows, extCols;
+
+        /**
+         * link to current and new nodes
+         */
+        final ActorRef[] array;
+
+        /**
+         * link to the aggregator
+         */
+        final ActorRef aggregator;
+
+        /**
+         * new nodes initialized, current nodes held, nodes ready
+         */
+        int joined, held, ready;
+
+        /**
+         * first iteration with the new points
+         */
+        long epoch;
+
+        Growth(int from, int to, ActorRef[] array, ActorRef aggregator){
+            this.from = from;
+            this.to = to;
+            this.array = Arrays.copyOf(array, to);
+            this.aggregator = aggregator;
+            this.rows = new double[to - from][to];
+            this.cols = new double[to - from][to];
+            this.extRows = new double[from][to - from];
+            this.extCols = new double[from][to - from];
+            for (double[] v : rows) Arrays.fill(v, Util.min_double);
+            for (double[] v : cols) Arrays.fill(v, Util.min_double);
+            for (double[] v : extRows) Arrays.fill(v, Util.min_double);
+            for (double[] v : extCols) Arrays.fill(v, Util.min_double);
+        }
+    }
+
     static Props props(double[][] Graph, int size) {
-        return Props.create(Dispatcher.class, () -> new Dispatcher(Graph,size));
+        return props(Graph, size, 0);
+    }
+
+    static Props props(double[][] Graph, int size, int blocks) {
+        return Props.create(Dispatcher.class, () -> new Dispatcher(Graph,null,null,size,blocks));
+    }
+
+    static Props props(SparseGraph sparse, int blocks) {
+        return Props.create(Dispatcher.class, () -> new Dispatcher(null,sparse,null,sparse.size,blocks));
+    }
+
+    static Props props(SimilarityFile mapped, int blocks) {
+        return Props.create(Dispatcher.class, () -> new Dispatcher(null,null,mapped,mapped.size,blocks));
+    }
+
+    /**
+     * @param data loaded graph
+     * @param seeds state of a previous run, null for a cold start
+     * @return absolute location of the similarity file if the nodes load it, null otherwise.
+     *         Seeds are aligned to the vectors by the dispatcher, so a warm start sends them
+     */
+    private static String loadedByNodes(Submit data, Snapshot seeds) {
+        if (!Constant.nodeLoad || data.mapped == null || seeds != null) return null;
+        return java.nio.file.Paths.get(data.name).toAbsolutePath().toString();
+    }
+
+    /**
+     * Dispatcher of a loaded graph, warm started from a snapshot
+     * @param data loaded graph
+     * @param blocks number of block nodes, 0 for nodes
+     * @param seeds state of a previous run, null for a cold start
+     * @return props
+     */
+    static Props props(Submit data, int blocks, Snapshot seeds) {
+        return Props.create(Dispatcher.class, () -> {
+            Dispatcher dispatcher = new Dispatcher(data.graph,data.sparse,data.mapped,data.size,blocks);
+            dispatcher.seeds = seeds;
+            dispatcher.file = loadedByNodes(data, seeds);
+            return dispatcher;
+        });
     }
 
-    private Dispatcher(double[][] Graph, int size){
+    /**
+     * Dispatcher of a job of a job server
+     * @param data loaded graph
+     * @param server job server
+     * @param job identifier of the job
+     * @return props
+     */
+    static Props props(Submit data, ActorRef server, int job) {
+        return Props.create(Dispatcher.class, () -> {
+            Dispatcher dispatcher = new Dispatcher(data.graph,data.sparse,data.mapped,data.size,0);
+            dispatcher.file = loadedByNodes(data, null);
+            dispatcher.server = server;
+            dispatcher.job = job;
+            return dispatcher;
+        });
+    }
+
+    private Dispatcher(double[][] Graph, SparseGraph sparse, SimilarityFile mapped, int size, int blocks){
         this.size = size;
         this.Graph = Graph;
+        this.sparse = sparse;
+        this.mapped = mapped;
+        this.blocks = blocks;
+
+        if (blocks > 0) {
+            bounds = new int[blocks + 1];
+            for (int b = 0; b <= blocks; b++) bounds[b] = (int) ((long) b * size / blocks);
+        }
 
-        this.array = new ActorRef[size];
+        this.array = new ActorRef[blocks > 0 ? blocks : size];
         this.index = 0;
         this.ready = 0;
 
@@ -68,49 +337,405 @@ class Dispatcher extends AbstractActor {
      * Actor messages handler
      * @see Self
      * @see Ready
+     * @see Insert
+     * @see Held
+     * @see Supervise
+     * @see Checkpointed
+     * @see CheckpointMissing
+     * @see LoadFailed
+     * @see Terminated
      * @return receive handler
      */
     @Override
     public Receive createReceive() {
         return receiveBuilder()
-        .match(Self.class, msg -> selfHandler(sender()))
+        .match(Self.class, msg -> {
+            if(growth != null) joinHandler(sender());
+            else if(!lost.isEmpty()) replaceHandler(sender());
+            else selfHandler(sender(), msg.router, msg.id);
+        })
         .match(Ready.class, msg -> {
+            if(growth != null) {
+                grownHandler();
+                return;
+            }
+            if(recovering) {
+                restoredHandler();
+                return;
+            }
             this.ready++;
-            if(ready == size) for(ActorRef node : array) node.tell(new Start(),ActorRef.noSender());
+            if(ready == array.length) {
+                for(ActorRef node : array) node.tell(new Start(),ActorRef.noSender());
+                started = true;
+                next();
+            }
         })
+        .match(Insert.class, msg -> {
+            inserts.add(msg);
+            next();
+        })
+        .match(Held.class, this::heldHandler)
+        .match(Supervise.class, this::superviseHandler)
+        .match(Checkpointed.class, this::checkpointedHandler)
+        .match(CheckpointMissing.class, this::missingHandler)
+        .match(LoadFailed.class, this::loadFailedHandler)
+        .match(Terminated.class, this::terminatedHandler)
         .build();
     }
 
+    /**
+     * A node could not read its vectors from its copy of the similarity file:
+     * abort the run, since that node would never be ready.
+     * Under a job server the job is aborted,
+     * otherwise the nodes and this system are terminated
+     * @param msg received
+     */
+    private void loadFailedHandler(LoadFailed msg){
+        if(aborted) return;
+        aborted = true;
+        System.out.println("Node " + msg.id + " did not load " + file + ": " + msg.reason + ", run aborted");
+        if(server != null) {
+            server.tell(new JobFailed(job, msg.reason), self());
+            return;
+        }
+        for(ActorRef node : array)
+            if(node != null) node.tell(akka.actor.PoisonPill.getInstance(), ActorRef.noSender());
+        getContext().system().terminate();
+    }
+
+    /**
+     * Watch the nodes, if checkpoints are written in this mode
+     * @param msg received
+     * @see Constant#checkpointEach
+     */
+    private void superviseHandler(Supervise msg){
+        if(Constant.checkpointEach <= 0) return;
+        if(blocks > 0 || Constant.batch || Constant.float32 || Constant.hierarchical || Constant.staleness > 0) {
+            System.out.println("Recovery not supported in this mode");
+            return;
+        }
+        hosts = msg.hosts;
+        aggregator = msg.aggregator;
+        for(ActorRef node : array) if(node != null) getContext().watch(node);
+    }
+
+    /**
+     * Record a checkpoint.
+     * Once every node wrote it, it is the one to roll back to
+     * @param msg received
+     */
+    private void checkpointedHandler(Checkpointed msg){
+        BitSet nodes = checkpoints.computeIfAbsent(msg.iteration, k -> new BitSet(size));
+        nodes.set(msg.sender);
+        if(nodes.cardinality() < size) return;
+        consistent = Math.max(consistent, msg.iteration);
+        checkpoints.headMap(msg.iteration, true).clear();
+    }
+
+    /**
+     * A node is lost with its lookup system:
+     * deploy a replacement on a remaining host.
+     * Nodes stopped at termination, or lost before the start, are not replaced
+     * @param msg received
+     */
+    private void terminatedHandler(Terminated msg){
+        if(!msg.addressTerminated() || !started) return;
+        int id = Arrays.asList(array).indexOf(msg.getActor());
+        if(id < 0) return;
+        dead.add(msg.getActor().path().address());
+
+        Address[] alive = Arrays.stream(hosts).filter(host -> !dead.contains(host)).toArray(Address[]::new);
+        if(alive.length == 0) {
+            System.out.println("Node " + id + " lost, no host left");
+            return;
+        }
+        if(lost.isEmpty() && replaced.isEmpty()) {
+            timer = new Timer();
+            timer.start();
+        }
+        lost.add(id);
+        getContext().actorOf(Main.mailbox(Props.create(Node.class, aggregator, self(), null)
+                .withDeploy(new Deploy(new RemoteScope(alive[id % alive.length])))));
+    }
+
+    /**
+     * Initialize the replacement of a lost node.
+     * When all the lost nodes are replaced,
+     * every node rolls back to the last consistent checkpoint
+     * @param sender : Ref to sender
+     */
+    private void replaceHandler(ActorRef sender){
+        int id = lost.poll();
+        array[id] = sender;
+        replaced.set(id);
+        getContext().watch(sender);
+        sender.tell(file != null ? load(id, id + 1, id) : initialize(id), ActorRef.noSender());
+        if(!lost.isEmpty()) return;
+
+        generation++;
+        recovering = true;
+        restart = consistent;
+        ready = 0;
+        expected = size + replaced.cardinality();
+        ActorRef[] current = array.clone();
+        Neighbors neighbors = new Neighbors(current, null, size);
+        for(int i = replaced.nextSetBit(0); i >= 0; i = replaced.nextSetBit(i + 1)) array[i].tell(neighbors, ActorRef.noSender());
+        Restore restore = new Restore(restart, generation, current);
+        for(ActorRef node : array) node.tell(restore, ActorRef.noSender());
+    }
+
+    /**
+     * A node cannot roll back: its checkpoint is missing,
+     * as for a replacement when the checkpoints of the failed host were local
+     * @param msg received
+     */
+    private void missingHandler(CheckpointMissing msg){
+        System.out.println("Checkpoint " + msg.iteration + " of node " + msg.sender + " missing");
+        missing = true;
+        restoredHandler();
+    }
+
+    /**
+     * Count the nodes ready after a rollback:
+     * the replacements are ready twice, once initialized and once restored.
+     * When all of them answered, restart the iterations.
+     * If some node lacks the checkpoint, the nodes would resume from different states:
+     * all of them roll back again, to the start
+     */
+    private void restoredHandler(){
+        if(++ready < expected) return;
+        if(missing) {
+            System.out.println("Checkpoint " + restart + " not on every node, all the nodes start over");
+            missing = false;
+            generation++;
+            restart = -1;
+            ready = 0;
+            expected = size;
+            checkpoints.clear();
+            consistent = -1;
+            Restore restore = new Restore(restart, generation, array.clone());
+            for(ActorRef node : array) node.tell(restore, ActorRef.noSender());
+            return;
+        }
+        Start start = new Start(restart + 1);
+        for(ActorRef node : array) node.tell(start, ActorRef.noSender());
+
+        timer.stop();
+        System.out.println("Replaced " + replaced.cardinality() + " nodes, restarted from iteration " + (restart + 1) + " in: " + timer);
+        replaced.clear();
+        recovering = false;
+        ready = array.length;
+    }
+
+    /**
+     * Start the next insertion, if the nodes are running and no other is in progress.
+     * Insertions need the lock-step double precision node
+     * @see Constant#live
+     */
+    private void next(){
+        while(started && growth == null && !inserts.isEmpty()) {
+            Insert insert = inserts.poll();
+            Triples triples = insert.triples;
+            if(blocks > 0 || routers != null || Constant.float32 || Constant.hierarchical || Constant.staleness > 0) {
+                System.out.println("Insertion not supported in this mode");
+                continue;
+            }
+            if(triples.size <= size) {
+                System.out.println("Insertion without new points ignored");
+                continue;
+            }
+
+            growth = new Growth(size, triples.size, array, insert.aggregator);
+            double preference = preference(triples);
+            for(int n = 0; n < growth.to - size; n++) growth.rows[n][size + n] = growth.cols[n][size + n] = preference;
+
+            /* s(n,n) in the file overrides the preference */
+            int ignored = 0;
+            for(int t = 0; t < triples.count; t++) {
+                int i = triples.row[t], j = triples.col[t];
+                double value = triples.value[t];
+                if(i < size && j < size) {
+                    ignored++;
+                    continue;
+                }
+                if(i >= size) growth.rows[i - size][j] = value;
+                else growth.extRows[i][j - size] = value;
+                if(j >= size) growth.cols[j - size][i] = value;
+                else growth.extCols[j][i - size] = value;
+            }
+
+            if(ignored > 0)
+                System.out.println(ignored + " triples between current points ignored: their similarities are not updated");
+
+            timer = new Timer();
+            timer.start();
+            for(int n = size; n < growth.to; n++)
+                getContext().actorOf(Main.mailbox(Props.create(Node.class, insert.aggregator, self(), null)
+                        .withDeploy(new Deploy(new RemoteScope(insert.hosts[n % insert.hosts.length])))));
+        }
+    }
+
+    /**
+     * Preference of the inserted points without s(n,n) in the insert file:
+     * the Constant.preferenceQuantile of the finite similarities s(i,j), i != j,
+     * of the loaded graph and of the inserted pairs,
+     * as a load of the whole graph would compute it.
+     * Pairs of the points inserted before are not kept, so they are not counted.
+     * With Constant.approximatePreference the values feed a sketch as the rows are read
+     * @param triples inserted
+     * @return preference
+     */
+    private double preference(Triples triples){
+        int loaded = sparse != null ? sparse.size : mapped != null ? mapped.size : Graph.length;
+        /* the sketch reads the rows as they are mapped, without a copy */
+        Quantiles.Sketch sketch = Constant.approximatePreference ? new Quantiles.Sketch() : null;
+        double[] values = sketch != null ? null : new double[Math.max(16, triples.count)];
+        int count = 0;
+        for(int i = 0; i < loaded; i++) {
+            int[] index = null;
+            double[] row;
+            if(sparse != null) {
+                index = sparse.rowIndex(i);
+                row = sparse.rowValue(i);
+            } else if(mapped != null && mapped.isSparse()) {
+                index = mapped.rowIndex(i);
+                row = mapped.rowValue(i);
+            } else row = mapped != null ? mapped.denseRow(i) : Graph[i];
+            for(int p = 0; p < row.length; p++) {
+                if((index == null ? p : index[p]) == i || Util.isMinDouble(row[p])) continue;
+                if(sketch != null) sketch.add(row[p]);
+                else {
+                    if(count == values.length) values = Arrays.copyOf(values, 2 * count);
+                    values[count++] = row[p];
+                }
+            }
+        }
+        for(int t = 0; t < triples.count; t++) {
+            int i = triples.row[t], j = triples.col[t];
+            if(i == j || (i < size && j < size) || Util.isMinDouble(triples.value[t])) continue;
+            if(sketch != null) sketch.add(triples.value[t]);
+            else {
+                if(count == values.length) values = Arrays.copyOf(values, 2 * count);
+                values[count++] = triples.value[t];
+            }
+        }
+        return sketch != null
+                ? sketch.quantile(Constant.preferenceQuantile)
+                : Util.getPreference(values, count, Constant.preferenceQuantile, false);
+    }
+
+    /**
+     * Initialize a new node.
+     * When all of them are initialized, hold the running nodes
+     * @param sender : Ref to sender
+     */
+    private void joinHandler(ActorRef sender){
+        int id = growth.from + growth.joined;
+        if(id >= growth.to) {
+            sender.tell(new Die(), self());
+            return;
+        }
+        int n = growth.joined++;
+        growth.array[id] = sender;
+        sender.tell(new Initialize(growth.rows[n], growth.cols[n], id), ActorRef.noSender());
+
+        if(id + 1 == growth.to)
+            for(ActorRef node : array) node.tell(new Hold(), self());
+    }
+
+    /**
+     * Collect the iteration at which a running node holds.
+     * When all of them hold, the epoch is the iteration after the latest:
+     * the running nodes grow their state before it,
+     * the new nodes learn their neighbors
+     * @param held received
+     */
+    private void heldHandler(Held held){
+        growth.epoch = Math.max(growth.epoch, held.iteration + 1);
+        if(++growth.held < growth.from) return;
+
+        growth.aggregator.tell(new Resize(growth.epoch, growth.to), self());
+        for(int k = 0; k < growth.from; k++)
+            growth.array[k].tell(new Membership(growth.epoch, growth.to, growth.array, growth.extRows[k], growth.extCols[k]), ActorRef.noSender());
+
+        Neighbors neighbors = new Neighbors(growth.array, null, growth.to);
+        for(int n = growth.from; n < growth.to; n++) growth.array[n].tell(neighbors, ActorRef.noSender());
+    }
+
+    /**
+     * Count the nodes ready for the epoch.
+     * When all of them are, start the epoch and the next insertion
+     */
+    private void grownHandler(){
+        if(++growth.ready < growth.to) return;
+        Start start = new Start(growth.epoch);
+        for(ActorRef node : growth.array) node.tell(start, ActorRef.noSender());
+
+        timer.stop();
+        System.out.println("Inserted " + (growth.to - growth.from) + " points at iteration " + growth.epoch + " in: " + timer);
+        array = growth.array;
+        size = growth.to;
+        growth = null;
+        next();
+    }
+
     /**
      * Collect links to nodes
      *
      * @param sender : Ref to sender
+     * @param router : Ref to the router of the sender, may be null
+     * @param point : point the sender is deployed for, -1 for the next free one
      */
-    private void selfHandler(ActorRef sender){
+    private void selfHandler(ActorRef sender, ActorRef router, int point){
         /* if we have initialized enough nodes */
-        if (index >= size) {
+        if (index >= array.length) {
             sender.tell(new Die(), self());
             return;
         }
 
-        /*
-         * create row and col vector
-         * Instead of sending the whole graph to all nodes
-         * Reliably forward the values of interest
-         */
-        double[] row = new double[size];
-        double[] col = new double[size];
+        if (blocks > 0) {
+            blockHandler(sender);
+            return;
+        }
 
-        for (int j = 0; j < size; j++) {
-            row[j] = Graph[index][j];
-            col[j] = Graph[j][index];
+        /* the planned point, or the next one not taken */
+        int id = point;
+        if (id < 0) {
+            while (array[free] != null) free++;
+            id = free;
+        } else if (id >= size || array[id] != null) {
+            sender.tell(new Die(), self());
+            return;
         }
 
         /* save node link */
-        array[index] = sender;
+        array[id] = sender;
+        if (hosts != null) getContext().watch(sender);
+        if (router != null) {
+            if (routers == null) routers = new ActorRef[size];
+            routers[id] = router;
+        }
 
         /* send initialize message */
-        sender.tell(new Initialize(row, col, index), ActorRef.noSender());
+        if (file != null)
+            sender.tell(load(id, id + 1, id), ActorRef.noSender());
+        else {
+            /*
+             * create row and col vector
+             * Instead of sending the whole graph to all nodes
+             * Reliably forward the values of interest
+             * If sparse, only the pairs different from -INF are sent
+             */
+            Initialize init = initialize(id);
+
+            /* warm start: the previous state of the point, aligned with its vectors */
+            if (seeds != null)
+                init = new Initialize(init.similarity_row, init.row_index, init.similarity_col, init.col_index, id,
+                        seeds.availabilities(id, init.row_index, size),
+                        seeds.responsibilities(id, init.col_index, size));
+
+            sender.tell(Constant.float32 ? new FloatInitialize(init) : init, ActorRef.noSender());
+        }
 
         /* increase index value */
         /* wait next node */
@@ -118,11 +743,92 @@ class Dispatcher extends AbstractActor {
 
         /* check if we have initialized enough nodes */
         if (index == size) {
-            Neighbors neighbors = new Neighbors(array, size);
+            Neighbors neighbors = new Neighbors(array, routers, size);
             for (ActorRef node : array) node.tell(neighbors, ActorRef.noSender());
 
             timer.stop();
             System.out.println("Started " + index + " actor" + " in: " + timer);
         }
     }
+
+    /**
+     * Initialization by reference of the points [from, to)
+     * @param from first point
+     * @param to last point, excluded
+     * @param id identifier of the node or block node
+     * @return load message
+     */
+    private Load load(int from, int to, int id){
+        return new Load(file, mapped.size, mapped.entries, from, to, id);
+    }
+
+    /**
+     * @param i point
+     * @return initialization of the node of the point
+     */
+    private Initialize initialize(int i){
+        if (sparse != null)
+            return new Initialize(sparse.rowValue(i), sparse.rowIndex(i),
+                    sparse.colValue(i), sparse.colIndex(i), i);
+        if (mapped != null) return mapped.initialize(i);
+        return new Initialize(row(i), col(i), i);
+    }
+
+    /**
+     * Collect links to block nodes
+     * Each block receives the rows and the columns
+     * of the points in its range
+     *
+     * @param sender : Ref to sender
+     */
+    private void blockHandler(ActorRef sender){
+        int from = bounds[index];
+        int length = bounds[index + 1] - from;
+
+        array[index] = sender;
+        if (file != null)
+            sender.tell(load(from, from + length, index), ActorRef.noSender());
+        else {
+            double[][] rows = new double[length][];
+            double[][] cols = new double[length][];
+            for (int i = 0; i < length; i++) {
+                rows[i] = row(from + i);
+                cols[i] = col(from + i);
+            }
+            sender.tell(new InitializeBlock(rows, cols, from, index), ActorRef.noSender());
+        }
+        index++;
+
+        if (index == blocks) {
+            Blocks msg = new Blocks(array, bounds, size);
+            for (ActorRef node : array) node.tell(msg, ActorRef.noSender());
+
+            timer.stop();
+            System.out.println("Started " + index + " block actor" + " in: " + timer);
+        }
+    }
+
+    /**
+     * Dense row of the similarity graph
+     * @param i row
+     * @return s(i,*)
+     */
+    private double[] row(int i){
+        if (sparse != null) return sparse.denseRow(i);
+        if (mapped != null) return mapped.denseRow(i);
+        return Graph[i].clone();
+    }
+
+    /**
+     * Dense column of the similarity graph
+     * @param i column
+     * @return s(*,i)
+     */
+    private double[] col(int i){
+        if (sparse != null) return sparse.denseCol(i);
+        if (mapped != null) return mapped.denseCol(i);
+        double[] col = new double[size];
+        for (int j = 0; j < size; j++) col[j] = Graph[j][i];
+        return col;
+    }
 }
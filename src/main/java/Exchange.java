@@ -0,0 +1,166 @@
+import akka.actor.ActorPath;
+import akka.actor.ActorRef;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class for the inboxes of the nodes of a host, in shared memory.
+ *
+ * The router of each host owns one exchange
+ * and publishes it in a registry of its JVM.
+ * Batches from other hosts are written into the inboxes by the router,
+ * while with Constant.shared the nodes running next to it
+ * write the values for their host neighbors straight into the inboxes,
+ * with no message, batch or mailbox in between.
+ * The writer of the last value a node expects in an iteration
+ * hands all of them to the node as a single vector.
+ *
+ * @author Simone Schirinzi
+ */
+class Exchange {
+    /**
+     * Exchange of each router of the JVM
+     */
+    private static final ConcurrentHashMap<ActorPath, Exchange> registry = new ConcurrentHashMap<>();
+
+    /**
+     * Inboxes of the local nodes.
+     * Slots are indexed by the global node identifier.
+     */
+    private Inbox[] inboxes = new Inbox[0];
+
+    /**
+     * Publish the exchange of a router
+     * @param router owner
+     * @param exchange of the router
+     */
+    static void register(ActorRef router, Exchange exchange){
+        registry.put(router.path(), exchange);
+    }
+
+    /**
+     * Remove the exchange of a stopped router
+     * @param router owner
+     */
+    static void unregister(ActorRef router){
+        registry.remove(router.path());
+    }
+
+    /**
+     * @param router owner
+     * @return exchange of the router, null if it runs in another JVM
+     */
+    static Exchange of(ActorRef router){
+        return registry.get(router.path());
+    }
+
+    /**
+     * Get the inbox of a node, creating it if necessary.
+     * The slot vector grows by doubling.
+     * @param id of the node
+     * @return inbox of the node
+     */
+    synchronized Inbox inbox(int id){
+        if (id >= inboxes.length) inboxes = Arrays.copyOf(inboxes, Math.max(id + 1, inboxes.length * 2));
+        if (inboxes[id] == null) inboxes[id] = new Inbox();
+        return inboxes[id];
+    }
+
+    /**
+     * Values received for a single local node during an iteration.
+     * Writers may run on any thread of the JVM, so each inbox is locked.
+     * The arrays are handed to the node inside the vector message,
+     * so new ones are allocated after each flush.
+     */
+    static class Inbox {
+        /** Link to the node, null until registration */
+        private ActorRef node;
+
+        /** Number of responsibilities expected. -1 until registration */
+        private int r_expected = -1;
+
+        /** Number of availabilities expected. -1 until registration */
+        private int a_expected = -1;
+
+        private int[] r_senders = new int[0];
+        private double[] r_values = new double[0];
+        private int r_count;
+
+        private int[] a_senders = new int[0];
+        private double[] a_values = new double[0];
+        private int a_count;
+
+        /**
+         * Declare the node and the number of values it waits for each iteration.
+         * Values may arrive before the registration,
+         * so a complete inbox is flushed immediately.
+         * @param node link to the node
+         * @param r_expected responsibilities expected
+         * @param a_expected availabilities expected
+         */
+        synchronized void register(ActorRef node, int r_expected, int a_expected){
+            this.node = node;
+            this.r_expected = r_expected;
+            this.a_expected = a_expected;
+            if (r_senders.length < r_expected) {
+                r_senders = Arrays.copyOf(r_senders, r_expected);
+                r_values = Arrays.copyOf(r_values, r_expected);
+            }
+            if (a_senders.length < a_expected) {
+                a_senders = Arrays.copyOf(a_senders, a_expected);
+                a_values = Arrays.copyOf(a_values, a_expected);
+            }
+            flushResponsibility();
+            flushAvailability();
+        }
+
+        synchronized void responsibility(int sender, double value){
+            if (r_count == r_senders.length) {
+                int grown = Math.max(16, r_count * 2);
+                r_senders = Arrays.copyOf(r_senders, grown);
+                r_values = Arrays.copyOf(r_values, grown);
+            }
+            r_senders[r_count] = sender;
+            r_values[r_count] = value;
+            r_count++;
+            flushResponsibility();
+        }
+
+        synchronized void availability(int sender, double value){
+            if (a_count == a_senders.length) {
+                int grown = Math.max(16, a_count * 2);
+                a_senders = Arrays.copyOf(a_senders, grown);
+                a_values = Arrays.copyOf(a_values, grown);
+            }
+            a_senders[a_count] = sender;
+            a_values[a_count] = value;
+            a_count++;
+            flushAvailability();
+        }
+
+        private void flushResponsibility(){
+            if (node == null || r_count == 0 || r_count < r_expected) return;
+            if (r_senders.length != r_count) {
+                r_senders = Arrays.copyOf(r_senders, r_count);
+                r_values = Arrays.copyOf(r_values, r_count);
+            }
+            node.tell(new ResponsibilityVector(r_senders, r_values), ActorRef.noSender());
+            r_senders = new int[r_expected];
+            r_values = new double[r_expected];
+            r_count = 0;
+        }
+
+        private void flushAvailability(){
+            if (node == null || a_count == 0 || a_count < a_expected) return;
+            if (a_senders.length != a_count) {
+                a_senders = Arrays.copyOf(a_senders, a_count);
+                a_values = Arrays.copyOf(a_values, a_count);
+            }
+            node.tell(new AvailabilityVector(a_senders, a_values), ActorRef.noSender());
+            a_senders = new int[a_expected];
+            a_values = new double[a_expected];
+            a_count = 0;
+        }
+    }
+}
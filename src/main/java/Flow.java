@@ -0,0 +1,96 @@
+import akka.actor.ActorRef;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Class for the credit-based flow control of the batches of a node.
+ *
+ * A node holds Constant.credits credits towards each router.
+ * Each batch sent takes one credit, and the router gives it back
+ * once the batch is fanned out into its inboxes.
+ * Without credits the batches are queued in order
+ * and sent as the credits come back,
+ * so that a burst never puts more than Constant.credits batches of a node
+ * in the buffers and mailbox of a receiving host.
+ *
+ * @author Simone Schirinzi
+ * @see Credit
+ */
+class Flow {
+    private final ActorRef owner;
+
+    /**
+     * Credits and queued batches towards each router
+     */
+    private final HashMap<ActorRef, Channel> channels = new HashMap<>();
+
+    /**
+     * Time spent by channels without credits, since the last reset
+     */
+    private long waited;
+
+    /**
+     * @param owner the node
+     */
+    Flow(ActorRef owner){
+        this.owner = owner;
+    }
+
+    /**
+     * Send a batch to a router, or queue it if no credit is left
+     * @param router receiver
+     * @param batch to send
+     */
+    void send(ActorRef router, Messages batch){
+        Channel channel = channels.computeIfAbsent(router, r -> new Channel());
+        if (channel.credits > 0 && channel.queue.isEmpty()) {
+            channel.credits--;
+            router.tell(batch, owner);
+            return;
+        }
+        if (channel.queue.isEmpty()) channel.since = System.nanoTime();
+        channel.queue.add(batch);
+    }
+
+    /**
+     * A router gives back a credit: send the next queued batch, if any
+     * @param router sender of the credit
+     */
+    void credit(ActorRef router){
+        Channel channel = channels.computeIfAbsent(router, r -> new Channel());
+        channel.credits++;
+        while (channel.credits > 0 && !channel.queue.isEmpty()) {
+            channel.credits--;
+            router.tell(channel.queue.poll(), owner);
+        }
+        if (channel.queue.isEmpty() && channel.since != 0) {
+            waited += System.nanoTime() - channel.since;
+            channel.since = 0;
+        }
+    }
+
+    /**
+     * @return nanos spent by the channels waiting for credits
+     * since the previous call, summed over the channels
+     */
+    long resetWaited(){
+        long now = System.nanoTime();
+        long ret = waited;
+        for (Channel channel : channels.values())
+            if (channel.since != 0) {
+                ret += now - channel.since;
+                channel.since = now;
+            }
+        waited = 0;
+        return ret;
+    }
+
+    private static class Channel {
+        int credits = Constant.credits;
+        final ArrayDeque<Messages> queue = new ArrayDeque<>();
+
+        /** Start of the current wait for credits, 0 if not waiting */
+        long since;
+    }
+}
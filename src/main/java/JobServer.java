@@ -0,0 +1,205 @@
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Address;
+import akka.actor.Deploy;
+import akka.actor.Props;
+import akka.remote.RemoteScope;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Class for running many clustering jobs on one actor system.
+ *
+ * Each job has its own dispatcher and aggregator,
+ * while the nodes are pooled workers deployed on the lookup systems.
+ * A job takes as many idle workers as its points,
+ * deploying new ones only when the pool is short.
+ * When the job is over its workers are reset, not killed,
+ * and go back to the pool for the next job.
+ *
+ * Jobs may run at the same time on distinct workers.
+ * The values exchanged by the nodes are tagged with their job,
+ * so the values of a finished job still in flight are discarded.
+ *
+ * Jobs run with the plain node:
+ * batching, block nodes, hierarchical convergence and live mode are not used,
+ * whatever Constant says. Pooled nodes have no router
+ * and report every value to the aggregator of their job,
+ * which ends the job at convergence.
+ *
+ * @author Simone Schirinzi
+ */
+class JobServer extends AbstractActor {
+    /**
+     * Lookup systems on which workers are deployed
+     */
+    private final Address[] addresses;
+
+    /**
+     * Workers not assigned to any job
+     */
+    private final ArrayDeque<ActorRef> idle;
+
+    /**
+     * Running jobs, by identifier
+     */
+    private final HashMap<Integer, Job> jobs;
+
+    /**
+     * Identifier of the next job
+     */
+    private int next;
+
+    /**
+     * Number of deployed workers
+     */
+    private int deployed;
+
+    /**
+     * Set when no more job will be submitted
+     */
+    private boolean closing;
+
+    /**
+     * State of a running job
+     */
+    private static class Job {
+        final String name;
+        final ActorRef dispatcher;
+        final ActorRef aggregator;
+        final ActorRef[] workers;
+        final Timer timer;
+
+        Job(String name, ActorRef dispatcher, ActorRef aggregator, ActorRef[] workers){
+            this.name = name;
+            this.dispatcher = dispatcher;
+            this.aggregator = aggregator;
+            this.workers = workers;
+            this.timer = new Timer();
+            timer.start();
+        }
+    }
+
+    static Props props(Address[] addresses) {
+        return Props.create(JobServer.class, () -> new JobServer(addresses));
+    }
+
+    /**
+     * Create a server with an empty pool
+     * @param addresses of the lookup systems
+     */
+    private JobServer(Address[] addresses){
+        this.addresses = addresses;
+        this.idle = new ArrayDeque<>();
+        this.jobs = new HashMap<>();
+        this.next = 0;
+        this.deployed = 0;
+    }
+
+    /**
+     * Actor messages handler
+     * @see Submit
+     * @see JobDone
+     * @see JobFailed
+     * @see Shutdown
+     * @return receive handler
+     */
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Submit.class, this::submitHandler)
+                .match(JobDone.class, this::doneHandler)
+                .match(JobFailed.class, this::failedHandler)
+                .match(Shutdown.class, msg -> {
+                    closing = true;
+                    stopIfIdle();
+                })
+                .build();
+    }
+
+    /**
+     * Start a job: create its control actors
+     * and assign it a worker for each point
+     * @param submit received
+     */
+    private void submitHandler(Submit submit){
+        int job = next++;
+
+        Props dispatcherProps;
+        if(submit.mapped != null) dispatcherProps = Dispatcher.props(submit, self(), job);
+        else if(submit.sparse != null) dispatcherProps = Dispatcher.props(submit.sparse, 0);
+        else dispatcherProps = Dispatcher.props(submit.graph, submit.size, 0);
+        ActorRef dispatcher = getContext().actorOf(dispatcherProps, "creator-" + job);
+        ActorRef aggregator = getContext().actorOf(Aggregator.props(submit.graph, submit.size, self(), job), "aggregator-" + job);
+
+        ActorRef[] workers = new ActorRef[submit.size];
+        for(int i = 0; i < workers.length; i++) {
+            workers[i] = idle.isEmpty() ? deploy() : idle.poll();
+            workers[i].tell(new Assign(job, aggregator, dispatcher), self());
+        }
+
+        jobs.put(job, new Job(submit.name, dispatcher, aggregator, workers));
+        System.out.println("Job " + job + " started on " + submit.name + " with " + workers.length + " workers, " + idle.size() + " idle");
+    }
+
+    /**
+     * Deploy a new worker, round robin on the lookup systems
+     * @return link to the worker
+     */
+    private ActorRef deploy(){
+        Address address = addresses[deployed++ % addresses.length];
+        return getContext().actorOf(Main.mailbox(Props.create(Node.class)
+                .withDeploy(new Deploy(new RemoteScope(address)))));
+    }
+
+    /**
+     * Report a job, reset its workers and return them to the pool.
+     * The aggregator stopped itself
+     * @param done received
+     */
+    private void doneHandler(JobDone done){
+        Job job = jobs.remove(done.job);
+        if(job == null) return;
+        job.timer.stop();
+        System.out.println("Job " + done.job + " done on " + job.name + " after " + done.iterations + " iterations and " + job.timer);
+        System.out.println("Exemplars: " + done.exemplars);
+
+        getContext().stop(job.dispatcher);
+        for(ActorRef worker : job.workers) {
+            worker.tell(new Reset(), self());
+            idle.add(worker);
+        }
+        stopIfIdle();
+    }
+
+    /**
+     * Report an aborted job, stop its control actors,
+     * reset its workers and return them to the pool
+     * @param failed received
+     */
+    private void failedHandler(JobFailed failed){
+        Job job = jobs.remove(failed.job);
+        if(job == null) return;
+        System.out.println("Job " + failed.job + " failed on " + job.name + ": " + failed.reason);
+
+        getContext().stop(job.dispatcher);
+        getContext().stop(job.aggregator);
+        for(ActorRef worker : job.workers) {
+            worker.tell(new Reset(), self());
+            idle.add(worker);
+        }
+        stopIfIdle();
+    }
+
+    /**
+     * Once closing and no job is running,
+     * stop the workers, which terminate the lookup systems,
+     * and terminate this system
+     */
+    private void stopIfIdle(){
+        if(!closing || !jobs.isEmpty()) return;
+        for(ActorRef worker : idle) worker.tell(akka.actor.PoisonPill.getInstance(), ActorRef.noSender());
+        getContext().system().terminate();
+    }
+}
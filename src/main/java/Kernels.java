@@ -0,0 +1,319 @@
+/**
+ * Class for the update kernels of a single node.
+ *
+ * The kernels work on the vectors of a node:
+ * the similarity row and availability row for the responsibilities,
+ * the responsibility column for the availabilities.
+ * They hold no state, so they are shared by Node and LocalEngine
+ * and can be measured in isolation.
+ *
+ * Where an index vector is given, position p of the output
+ * refers to slot index[p] of the input vectors.
+ * Where it is null, position p refers to slot p
+ * and the scans run over contiguous memory with no branch in their bodies,
+ * so that the JIT can unroll and vectorize them.
+ * The results are the same of the indexed scans, bit for bit.
+ * The block kernels apply the contiguous scans to a block of rows.
+ *
+ * @author Simone Schirinzi
+ */
+class Kernels {
+    /**
+     * Compute r(i,k) for a set of k, in an optimized way.
+     *
+     * The maximum and the second maximum of {a(i,k) + s(i,k)}
+     * are computed once, remembering the slot of the maximum.
+     * r(i,k) is s(i,k) minus the maximum,
+     * or minus the second maximum for the slot of the maximum itself.
+     *
+     * @param s_row s(i,*)
+     * @param a_row a(i,*)
+     * @param index slots to compute, null for slots [0, count)
+     * @param count number of slots
+     * @param out r(i,k) for each slot
+     */
+    static void responsibilities(double[] s_row, double[] a_row, int[] index, int count, double[] out){
+        if (index == null) {
+            responsibilities(s_row, a_row, count, out);
+            return;
+        }
+
+        double firstMax, secondMax;
+        int firstK = -1;
+        firstMax = secondMax = Util.min_double;
+
+        for (int p = 0; p < count; p++) {
+            int k = index[p];
+            double value = a_row[k] + s_row[k];
+            if (firstMax <= value) {
+                secondMax = firstMax;
+                firstMax = value;
+                firstK = k;
+            } else if (secondMax <= value) secondMax = value;
+        }
+
+        for (int p = 0; p < count; p++) {
+            int k = index[p];
+            out[p] = (k == firstK ? s_row[k] - secondMax : s_row[k] - firstMax);
+        }
+    }
+
+    /**
+     * Compute a(i,k) for a set of i, in an optimized way.
+     *
+     * The sum r(k,k) + Σ max{0,r(q,k)}, q != k, is computed once.
+     * a(i,k) is that sum without the positive r(i,k), if any, capped at 0.
+     * a(k,k) is that sum without r(k,k).
+     *
+     * @param r_col r(*,k)
+     * @param index slots to compute, null for slots [0, count)
+     * @param count number of slots
+     * @param self slot of r(k,k)
+     * @param out a(i,k) for each slot
+     */
+    static void availabilities(double[] r_col, int[] index, int count, int self, double[] out){
+        if (index == null) {
+            availabilities(r_col, count, self, out);
+            return;
+        }
+
+        double sum = r_col[self];
+        for (int p = 0; p < count; p++) {
+            int q = index[p];
+            if (q != self && r_col[q] > 0.0) sum += r_col[q];
+        }
+
+        for (int p = 0; p < count; p++) {
+            int i = index[p];
+            if (i != self) {
+                double value = r_col[i] > 0.0 ? sum - r_col[i] : sum;
+                out[p] = 0 < value ? 0 : value;
+            } else
+                out[p] = sum - r_col[self];
+        }
+    }
+
+    /**
+     * Contiguous responsibilities over slots [0, count).
+     * The maximum is found first, then its last slot, as the indexed scan keeps,
+     * then the maximum of the slots before and after it.
+     * @param s_row s(i,*)
+     * @param a_row a(i,*)
+     * @param count number of slots
+     * @param out r(i,k) for each slot
+     */
+    private static void responsibilities(double[] s_row, double[] a_row, int count, double[] out){
+        double firstMax = Util.min_double;
+        for (int k = 0; k < count; k++) {
+            double value = a_row[k] + s_row[k];
+            firstMax = firstMax > value ? firstMax : value;
+        }
+
+        int firstK = count - 1;
+        while (firstK >= 0 && a_row[firstK] + s_row[firstK] != firstMax) firstK--;
+
+        double secondMax = Util.min_double;
+        for (int k = 0; k < firstK; k++) {
+            double value = a_row[k] + s_row[k];
+            secondMax = secondMax > value ? secondMax : value;
+        }
+        for (int k = firstK + 1; k < count; k++) {
+            double value = a_row[k] + s_row[k];
+            secondMax = secondMax > value ? secondMax : value;
+        }
+
+        for (int k = 0; k < count; k++) out[k] = s_row[k] - firstMax;
+        if (firstK >= 0) out[firstK] = s_row[firstK] - secondMax;
+    }
+
+    /**
+     * Contiguous availabilities over slots [0, count).
+     * The positive sum runs before and after self,
+     * in the order of the indexed scan.
+     * @param r_col r(*,k)
+     * @param count number of slots
+     * @param self slot of r(k,k)
+     * @param out a(i,k) for each slot
+     */
+    private static void availabilities(double[] r_col, int count, int self, double[] out){
+        double sum = r_col[self];
+        for (int q = 0; q < self; q++) sum += r_col[q] > 0.0 ? r_col[q] : 0.0;
+        for (int q = self + 1; q < count; q++) sum += r_col[q] > 0.0 ? r_col[q] : 0.0;
+
+        for (int i = 0; i < count; i++) {
+            double value = sum - (r_col[i] > 0.0 ? r_col[i] : 0.0);
+            out[i] = 0 < value ? 0 : value;
+        }
+        out[self] = sum - r_col[self];
+
+        /* s(k,k) = -INF: the sum is -INF too, a(k,k) is the positive sum alone */
+        if (Util.isMinDouble(r_col[self])) {
+            out[self] = 0.0;
+            for (int q = 0; q < count; q++) if (q != self && r_col[q] > 0.0) out[self] += r_col[q];
+        }
+    }
+
+    /**
+     * Contiguous responsibilities of a block of rows
+     * @param s_rows s(i,*) for each row
+     * @param a_rows a(i,*) for each row
+     * @param from first row
+     * @param to last row, excluded
+     * @param count number of slots of each row
+     * @param out r(i,*) for each row
+     */
+    static void responsibilities(double[][] s_rows, double[][] a_rows, int from, int to, int count, double[][] out){
+        for (int i = from; i < to; i++) responsibilities(s_rows[i], a_rows[i], count, out[i]);
+    }
+
+    /**
+     * Contiguous availabilities of a block of columns
+     * @param r_cols r(*,k) for each column
+     * @param from first column
+     * @param to last column, excluded
+     * @param count number of slots of each column
+     * @param offset slot of r(k,k) in r_cols[k] is k + offset
+     * @param out a(*,k) for each column
+     */
+    static void availabilities(double[][] r_cols, int from, int to, int count, int offset, double[][] out){
+        for (int k = from; k < to; k++) availabilities(r_cols[k], count, k + offset, out[k]);
+    }
+
+    /**
+     * Single precision version of responsibilities.
+     * The sums are computed in double precision,
+     * the results are rounded to single precision
+     * so that every receiver damps the same value.
+     * @see #responsibilities(double[], double[], int[], int, double[])
+     */
+    static void responsibilities(float[] s_row, float[] a_row, int[] index, int count, double[] out){
+        double firstMax, secondMax;
+        int firstK = -1;
+        firstMax = secondMax = Util.min_double;
+
+        for (int p = 0; p < count; p++) {
+            int k = index == null ? p : index[p];
+            double value = (double) a_row[k] + s_row[k];
+            if (firstMax <= value) {
+                secondMax = firstMax;
+                firstMax = value;
+                firstK = k;
+            } else if (secondMax <= value) secondMax = value;
+        }
+
+        for (int p = 0; p < count; p++) {
+            int k = index == null ? p : index[p];
+            out[p] = (float) (k == firstK ? s_row[k] - secondMax : s_row[k] - firstMax);
+        }
+    }
+
+    /**
+     * Single precision version of availabilities.
+     * The sum is computed in double precision,
+     * the results are rounded to single precision.
+     * @see #availabilities(double[], int[], int, int, double[])
+     */
+    static void availabilities(float[] r_col, int[] index, int count, int self, double[] out){
+        double sum = r_col[self];
+        for (int p = 0; p < count; p++) {
+            int q = index == null ? p : index[p];
+            if (q != self && r_col[q] > 0.0) sum += r_col[q];
+        }
+
+        for (int p = 0; p < count; p++) {
+            int i = index == null ? p : index[p];
+            if (i != self) {
+                double value = r_col[i] > 0.0 ? sum - r_col[i] : sum;
+                out[p] = (float) (0 < value ? 0 : value);
+            } else
+                out[p] = (float) (sum - r_col[self]);
+        }
+    }
+
+    /**
+     * Round the results of a kernel to single precision,
+     * as the single precision kernels do
+     * @param out results
+     * @param count number of results
+     */
+    static void round(double[] out, int count){
+        for (int p = 0; p < count; p++) out[p] = (float) out[p];
+    }
+
+    /**
+     * Compute r(i,k).
+     * Responsibility r(i,k) sent from node i candidate exemplar k
+     * reflects the accumulated evidence for how well-suited
+     * point k is to serve as exemplar for point i
+     *
+     * r(i,k) = s(i,k) - max, k' s.t. k' != k, {a(i,k')+s(i,k')}
+     * @param s_row s(i,*)
+     * @param a_row a(i,*)
+     * @param size number of nodes
+     * @param k index of node which send r(i,k)
+     * @return r(i,k)
+     */
+    static double r(double[] s_row, double[] a_row, int size, int k){
+        double max = Util.min_double;
+        /* foreach except k */
+        /* pre condition : max = -INF */
+        for (int i = 0; i < k; i++)
+            max = (max > (a_row[i] + s_row[i])) ? max : (a_row[i] + s_row[i]);
+        for (int i = k + 1; i < size; i++)
+            max = (max > (a_row[i] + s_row[i])) ? max : (a_row[i] + s_row[i]);
+        /* post condition : max = maximum, k' != k, 0 <= k' <= size,
+        { a(i,k') + s(i,k') } */
+
+        return s_row[k] - max;
+    }
+
+    /**
+     * Compute a(i,k).
+     * Availability a(i,k), sent from candidate exemplar point k
+     * to point i, reflects the accumulated evidence for
+     * how appropriate it would be for point i to choose
+     * point k as its exemplars
+     *
+     * a(i,k) = min{0, r(k,k)+ Σ, i' s.t. i' != i &amp;&amp; i' != k, (max{0,r(i',k)})}
+     *
+     * @param r_col r(*,k)
+     * @param size number of nodes
+     * @param self k
+     * @param i index of node which send a(i,k)
+     * @return a(i,k)
+     */
+    static double a(double[] r_col, int size, int self, int i){
+        double ret = r_col[self];
+
+        /* pre condition : ret = r(k,k) */
+        for(int q = 0; q < size; q++)
+            if(q != i && q != self && r_col[q] > 0.0)
+                ret += r_col[q];
+        /* post condition : ret = r(k,k) + Σ r(q,k) ,
+         * s.t. q != i && q != self && r[q][i]) > 0.0
+         */
+
+        /* return min { 0 , ret } */
+        return 0 < ret ? 0 : ret;
+    }
+
+    /**
+     * Self availability is updated differently.
+     * This message reflects accumulated evidence that point k
+     * is an exemplar, based on the positive responsibilities
+     * sent to candidate exemplar k from other points
+     *
+     * @param r_col r(*,k)
+     * @param size number of nodes
+     * @param self k
+     * @return a(k,k)
+     */
+    static double a(double[] r_col, int size, int self){
+        double ret = 0.0;
+        for(int q = 0; q < size; q++)
+            if(q != self && r_col[q] > 0.0)
+                ret += r_col[q];
+
+        return ret;
+    }
+}
@@ -0,0 +1,76 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Class for the final cluster assignment.
+ *
+ * A point belongs to the exemplar e maximizing s(i,e),
+ * an exemplar belongs to itself.
+ * The distributed run asks each node for the label of its points,
+ * since the node already holds its similarity row.
+ * When the whole matrix is in memory, the rows are labeled in parallel.
+ *
+ * @author Simone Schirinzi
+ */
+class Labels {
+    /**
+     * Label of a point with no finite similarity to any exemplar
+     */
+    static final int none = -1;
+
+    /**
+     * Label all the points of a dense graph, in parallel over the rows
+     * @param similarity s(i,j)
+     * @param exemplars in ascending order
+     * @return exemplar of each point
+     */
+    static int[] assign(double[][] similarity, List<Integer> exemplars){
+        int[] e = toArray(exemplars);
+        int[] labels = new int[similarity.length];
+        IntStream.range(0, similarity.length).parallel().forEach(i -> labels[i] = label(similarity[i], i, e));
+        return labels;
+    }
+
+    /**
+     * Label a point from its dense similarity row
+     * @param row s(i,*)
+     * @param i point
+     * @param exemplars in ascending order
+     * @return exemplar of the point
+     */
+    static int label(double[] row, int i, int[] exemplars){
+        int best = none;
+        double max = Util.min_double;
+        for (int e : exemplars) {
+            if (e == i) return i;
+            if (row[e] > max) {
+                max = row[e];
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    static int[] toArray(List<Integer> exemplars){
+        return exemplars.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Write the labels, one line "point exemplar" for each point.
+     * Identifiers are 1-based as in the input files, 0 if none
+     * @param file output file
+     * @param labels exemplar of each point
+     * @throws IOException on write error
+     */
+    static void write(String file, int[] labels) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            for (int i = 0; i < labels.length; i++) {
+                out.write((i + 1) + " " + (labels[i] + 1));
+                out.newLine();
+            }
+        }
+    }
+}
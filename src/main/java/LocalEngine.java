@@ -0,0 +1,196 @@
+import java.util.ArrayList;
+import java.util.stream.IntStream;
+
+/**
+ * Class for running affinity propagation in a single JVM.
+ *
+ * No actor and no message is involved:
+ * responsibilities and availabilities live in shared matrices
+ * and each half iteration is a parallel sweep, by rows and by columns.
+ * The update rules, the damping and the termination rule
+ * are the ones of Node and Aggregator,
+ * so the exemplars are the same as the distributed run.
+ * The kernels themselves are shared with Node.
+ *
+ * Responsibilities are kept by column and availabilities by row,
+ * as the node keeps r_col and a_row.
+ * The new values are computed in a scratch matrix
+ * and damped in place by a tiled transposition,
+ * so that every sweep reads and writes contiguous memory.
+ *
+ * In single precision the values are rounded to float
+ * where the nodes store or send them in Constant.float32 mode,
+ * so the run reproduces the distributed one in single precision.
+ *
+ * @see Kernels
+ * @author Simone Schirinzi
+ */
+class LocalEngine {
+    /**
+     * Side of the tiles of the transposition,
+     * and number of rows of each task of the kernels
+     */
+    private static final int tile = 64;
+
+    /**
+     * number of nodes
+     */
+    private final int size;
+
+    /**
+     * s[i][k] = s(i,k)
+     */
+    private final double[][] s;
+
+    /**
+     * r[k][i] = r(i,k)
+     */
+    private final double[][] r;
+
+    /**
+     * a[i][k] = a(i,k)
+     */
+    private final double[][] a;
+
+    /**
+     * New values before damping.
+     * By row for responsibilities, by column for availabilities
+     */
+    private final double[][] scratch;
+
+    /**
+     * If true, the values are rounded to single precision
+     */
+    private final boolean float32;
+
+    /**
+     * Indicates which iteration refers to the cluster
+     * stored in the variable previousCluster.
+     */
+    private long previousClusterIteration;
+
+    /**
+     * Last cluster calculated other than the ones previously calculated.
+     */
+    private ArrayList<Integer> previousCluster;
+
+    /**
+     * Build the engine.
+     * r(i,k) is -INF where s(i,k) is -INF, as the node does with r_col
+     * @param similarity graph, it is not copied
+     */
+    LocalEngine(double[][] similarity){
+        this(similarity, false);
+    }
+
+    /**
+     * Build the engine in the given precision
+     * @param similarity graph, it is not copied.
+     *                   In single precision it is rounded in place
+     * @param float32 if true, emulate single precision storage
+     */
+    LocalEngine(double[][] similarity, boolean float32){
+        this.size = similarity.length;
+        this.s = similarity;
+        this.float32 = float32;
+        this.r = new double[size][size];
+        this.a = new double[size][size];
+        this.scratch = new double[size][size];
+
+        if (float32) IntStream.range(0, size).parallel().forEach(i -> {
+            for (int k = 0; k < size; k++) s[i][k] = (float) s[i][k];
+        });
+        IntStream.range(0, size).parallel().forEach(k -> {
+            for (int i = 0; i < size; i++) if (Util.isMinDouble(s[i][k])) r[k][i] = Util.min_double;
+        });
+    }
+
+    /**
+     * Iterate until the exemplars stay the same
+     * for more than Constant.enoughIterations iterations
+     * @return exemplars, in ascending order
+     */
+    ArrayList<Integer> run(){
+        for (long iteration = 0; ; iteration++) {
+            responsibility();
+            availability();
+
+            ArrayList<Integer> exemplars = new ArrayList<>();
+            for (int i = 0; i < size; i++)
+                if (r[i][i] + a[i][i] > 0) exemplars.add(i);
+
+            if (!exemplars.equals(previousCluster)) {
+                previousCluster = exemplars;
+                previousClusterIteration = iteration;
+            }
+            if (iteration - previousClusterIteration > Constant.enoughIterations)
+                return previousCluster;
+        }
+    }
+
+    /**
+     * @return iteration at which the exemplars last changed
+     */
+    long iterations(){
+        return previousClusterIteration;
+    }
+
+    /**
+     * Compute the responsibilities of each tile of rows,
+     * with the maximum and the second maximum of {a(i,k) + s(i,k)},
+     * then damp them into r.
+     */
+    private void responsibility(){
+        int tiles = (size + tile - 1) / tile;
+        IntStream.range(0, tiles).parallel().forEach(t -> {
+            int i0 = t * tile, i1 = Math.min(size, i0 + tile);
+            Kernels.responsibilities(s, a, i0, i1, size, scratch);
+            if (float32) for (int i = i0; i < i1; i++) Kernels.round(scratch[i], size);
+        });
+
+        damp(scratch, r);
+    }
+
+    /**
+     * Compute the availabilities of each tile of columns,
+     * with the sum of the positive responsibilities,
+     * then damp them into a.
+     * Where s(i,k) is -INF, a(i,k) is never read.
+     */
+    private void availability(){
+        int tiles = (size + tile - 1) / tile;
+        IntStream.range(0, tiles).parallel().forEach(t -> {
+            int k0 = t * tile, k1 = Math.min(size, k0 + tile);
+            Kernels.availabilities(r, k0, k1, size, 0, scratch);
+            if (float32) for (int k = k0; k < k1; k++) Kernels.round(scratch[k], size);
+        });
+
+        damp(scratch, a);
+    }
+
+    /**
+     * to[j][i] = to[j][i] * lambda + from[i][j] * (1 - lambda)
+     * Tiles of rows of "to" are processed in parallel.
+     * Where to[j][i] is -INF it stays -INF.
+     * In single precision the damped value is rounded.
+     * @param from new values
+     * @param to damped values, transposed
+     */
+    private void damp(double[][] from, double[][] to){
+        int tiles = (size + tile - 1) / tile;
+        IntStream.range(0, tiles).parallel().forEach(t -> {
+            int j0 = t * tile, j1 = Math.min(size, j0 + tile);
+            for (int i0 = 0; i0 < size; i0 += tile) {
+                int i1 = Math.min(size, i0 + tile);
+                for (int j = j0; j < j1; j++) {
+                    double[] row = to[j];
+                    for (int i = i0; i < i1; i++)
+                        if (!Util.isMinDouble(row[i])) {
+                            double value = (row[i] * Constant.lambda) + (from[i][j] * (1 - Constant.lambda));
+                            row[i] = float32 ? (float) value : value;
+                        }
+                }
+            }
+        });
+    }
+}
@@ -1,5 +1,6 @@
 import akka.actor.*;
 import akka.remote.RemoteScope;
+import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 
 import java.sql.Time;
@@ -17,6 +18,13 @@ public class Main {
      */
     private final static String[] nodes_IP = new String[]{"10.101.5.30"};
 
+    /**
+     * Relative capacity of each host of nodes_IP,
+     * proportional to the share of nodes it receives
+     * @see Placement
+     */
+    private final static double[] nodes_capacity = new double[]{1};
+
     /**
      * The port on which the remote system stays awaiting deploy requests
      */
@@ -31,11 +39,32 @@ public class Main {
     /**
      * main method
      * @param args "listen" for remote system
-     *             "create" for control system
+     *             "create [file [snapshot]]" for control system, warm started if a snapshot is given
+     *             "convert input output [dense64|dense32|csr] [csv]" to write a binary similarity file
+     *             "local file" to run in this JVM without actors
+     *             "check file" to compare the exemplars in double and single precision
+     *             "serve" to run a job server, which clusters each file read from standard input
      */
     public static void main(String[] args) {
         if(debug) nodes_IP[0] = "127.0.0.1";
 
+        if (args.length > 0 && args[0].equals("convert")) {
+            convert(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("local")) {
+            startLocal(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("check")) {
+            checkPrecision(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("serve")) {
+            startServer();
+            return;
+        }
+
         if (args.length == 0 || args[0].equals("listen"))
             startLookupSystem();
         if (args.length == 0 || args[0].equals("create"))
@@ -46,7 +75,7 @@ public class Main {
      * Load file
      * Start system
      * deploy nodes
-     * @param args eventually input files
+     * @param args eventually input files: the graph and a snapshot to warm start from
      */
     private static void startSystem(String[] args) {
         /* Graph load */
@@ -57,40 +86,326 @@ public class Main {
 
         Timer timer = new Timer();
         timer.start();
-        double[][] graph = Util.buildGraph(default_file," ",null,true,Constant.sigma);
+        Submit data = load(default_file);
         timer.stop();
         System.out.println("File read in: " + timer);
-        int size = graph.length;
+        double[][] graph = data.graph;
+        int size = data.size;
+
+        /* Warm start */
+        Snapshot seeds = null;
+        if(args.length > 2) {
+            try {
+                seeds = Snapshot.read(args[2]);
+                System.out.println("Warm start from " + args[2] + " (" + seeds.size + " points)");
+            } catch (java.io.IOException e) {
+                System.out.println("Cold start, snapshot not read: " + e.getMessage());
+            }
+        }
 
         /* Address build */
-        Address[] nodes_address = new Address[nodes_IP.length];
-        for(int i = 0; i < nodes_IP.length; i++)
-            nodes_address[i] = new Address("akka.tcp", "lookupSystem", nodes_IP[i], remotePort);
+        Address[] nodes_address = addresses();
 
         /* System start */
-        ActorSystem system;
-        if(debug)
-            system = ActorSystem.create("creationSystem", ConfigFactory.load("testCreation"));
-        else
-            system = ActorSystem.create("creationSystem", ConfigFactory.load("creation"));
+        ActorSystem system = creationSystem();
+
+        /* Block nodes: the number of actors depends on hosts, not on data */
+        int blocks = Constant.blockNodes ? Math.min(size, nodes_address.length * Constant.blocksPerHost) : 0;
+
+        /* Host of each node: round robin, or planned to keep connected points together */
+        int[] host = new int[size];
+        for(int i = 0; i < size && nodes_address.length > 0; i++) host[i] = i % nodes_address.length;
+        if(Constant.placement && nodes_address.length > 1 && blocks == 0 && Placement.plannable(data)) {
+            double[] capacity = new double[nodes_address.length];
+            for(int h = 0; h < capacity.length; h++) capacity[h] = h < nodes_capacity.length ? nodes_capacity[h] : 1;
+            timer.start();
+            Placement plan = Placement.plan(data, capacity);
+            timer.stop();
+            host = plan.host;
+            System.out.println("Placement planned in: " + timer + ", remote pairs " + plan.cut + " of " + plan.edges
+                    + " (round robin " + plan.roundRobinCut + ")");
+        }
+        int[] local = new int[nodes_address.length];
+        for(int i = 0; i < size && nodes_address.length > 0; i++) local[host[i]]++;
+
+        /* Sub aggregators: one for each host with nodes */
+        int hosts = Constant.hierarchical && blocks == 0 ? (int) java.util.Arrays.stream(local).filter(n -> n > 0).count() : 0;
 
         /* create control actors */
-        ActorRef aggregator = system.actorOf(Aggregator.props(graph, size),"aggregator");
-        ActorRef dispatcher = system.actorOf(Dispatcher.props(graph, size), "creator");
+        ActorRef aggregator = system.actorOf(Aggregator.props(graph, size, blocks > 0 ? blocks : hosts > 0 ? hosts : size,
+                blocks > 0 ? blocks : size),"aggregator");
+        ActorRef dispatcher = system.actorOf(Dispatcher.props(data, blocks, seeds), "creator");
 
-        /* Node deploy */
-        for(int i = 0; i < size && nodes_address.length > 0 ; i++)
-            system.actorOf(Props.create(Node.class,aggregator,dispatcher)
-                    .withDeploy(new Deploy(new RemoteScope(nodes_address[i % nodes_address.length]))));
+        /* Recovery: the dispatcher replaces the nodes of failed hosts */
+        if(Constant.checkpointEach > 0 && blocks == 0)
+            dispatcher.tell(new Supervise(nodes_address, aggregator), ActorRef.noSender());
+
+        /* Block node deploy */
+        for(int i = 0; i < blocks; i++)
+            system.actorOf(mailbox(Props.create(BlockNode.class,aggregator,dispatcher)
+                    .withDeploy(new Deploy(new RemoteScope(nodes_address[i % nodes_address.length])))));
+
+        /* Router deploy, one for each host */
+        ActorRef[] routers = new ActorRef[nodes_address.length];
+        for(int i = 0; i < nodes_address.length && Constant.batch && blocks == 0; i++)
+            routers[i] = system.actorOf(Props.create(Router.class)
+                    .withDeploy(new Deploy(new RemoteScope(nodes_address[i]))));
+
+        /* Sub aggregator deploy: the nodes of a host report to it instead of the aggregator */
+        ActorRef[] reports = new ActorRef[nodes_address.length];
+        for(int i = 0; i < nodes_address.length; i++)
+            reports[i] = hosts > 0 && local[i] > 0
+                    ? system.actorOf(Props.create(SubAggregator.class, aggregator, local[i])
+                        .withDeploy(new Deploy(new RemoteScope(nodes_address[i]))))
+                    : aggregator;
+
+        /* Node deploy: the node of point i on its host */
+        for(int i = 0; i < size && nodes_address.length > 0 && blocks == 0; i++)
+            system.actorOf(mailbox(Props.create(Node.class,reports[host[i]],dispatcher,routers[host[i]],i)
+                    .withDeploy(new Deploy(new RemoteScope(nodes_address[host[i]])))));
 
         System.out.println("Started CalculatorSystem");
+
+        /* Live mode: insert the points of each file read from standard input */
+        if(Constant.live && blocks == 0) {
+            System.out.println("Reading files of points to insert from standard input");
+            eachFile(file -> {
+                try {
+                    dispatcher.tell(new Insert(Triples.load(file), nodes_address, aggregator), ActorRef.noSender());
+                } catch (java.io.IOException e) {
+                    System.out.println("File not read: " + e.getMessage());
+                }
+            });
+            aggregator.tell(new Shutdown(), ActorRef.noSender());
+        }
+    }
+
+    /**
+     * Start system
+     * Start a job server and submit to it
+     * each file read from standard input, one per line.
+     * The server stops when the input ends and the jobs are done.
+     * @see JobServer
+     */
+    private static void startServer() {
+        ActorSystem system = creationSystem();
+        ActorRef server = system.actorOf(JobServer.props(addresses()), "server");
+        System.out.println("Job server started, reading files from standard input");
+
+        eachFile(file -> server.tell(load(file), ActorRef.noSender()));
+        server.tell(new Shutdown(), ActorRef.noSender());
+    }
+
+    /**
+     * Handle each existing file read from standard input, one per line,
+     * until the input ends
+     * @param handler of the file
+     */
+    private static void eachFile(java.util.function.Consumer<String> handler) {
+        try (java.io.BufferedReader in = new java.io.BufferedReader(new java.io.InputStreamReader(System.in))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                if (!new java.io.File(line).isFile()) {
+                    System.out.println("No such file: " + line);
+                    continue;
+                }
+                handler.accept(line);
+            }
+        } catch (java.io.IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Load a graph in the form used by the dispatcher:
+     * mapped if binary, sparse if Constant.sparse, dense otherwise
+     * @param file input file
+     * @return loaded graph
+     */
+    private static Submit load(String file) {
+        if(SimilarityFile.isBinary(file)) {
+            SimilarityFile mapped = openBinary(file);
+            return new Submit(file, null, null, mapped, mapped.size);
+        }
+        if(Constant.sparse) {
+            SparseGraph sparse = Util.buildSparseGraph(file," ",null,true,Constant.sigma);
+            return new Submit(file, null, sparse, null, sparse.size);
+        }
+        double[][] graph = Util.buildGraph(file," ",null,true,Constant.sigma);
+        return new Submit(file, graph, null, null, graph.length);
+    }
+
+    /**
+     * @return addresses of the lookup systems
+     */
+    private static Address[] addresses() {
+        Address[] nodes_address = new Address[nodes_IP.length];
+        for(int i = 0; i < nodes_IP.length; i++)
+            nodes_address[i] = new Address(Constant.artery ? "akka" : "akka.tcp", "lookupSystem", nodes_IP[i], remotePort);
+        return nodes_address;
+    }
+
+    /**
+     * @return the control system
+     */
+    private static ActorSystem creationSystem() {
+        if(debug)
+            return ActorSystem.create("creationSystem", config("testCreation"));
+        return ActorSystem.create("creationSystem", config("creation"));
+    }
+
+    /**
+     * @param name of the configuration
+     * @return the configuration, in its Artery version if enabled
+     */
+    private static Config config(String name) {
+        return ConfigFactory.load(Constant.artery ? name + "Artery" : name);
+    }
+
+    /**
+     * Nodes measure their mailbox when metrics are enabled.
+     * The mailbox is selected through the dispatcher,
+     * which, unlike the mailbox, is kept by remote deployment.
+     * Applied after withDeploy, which would reset it
+     * @param props of a node
+     * @return props with the metered mailbox if needed
+     * @see MeteredMailbox
+     */
+    static Props mailbox(Props props) {
+        return Constant.metrics ? props.withDispatcher("metered-dispatcher") : props;
+    }
+
+    /**
+     * Load file
+     * Run the shared memory engine
+     * @param args "local" and the input file, text or binary
+     * @see LocalEngine
+     */
+    private static void startLocal(String[] args) {
+        if(args.length < 2) {
+            System.out.println("Usage: local file");
+            return;
+        }
+
+        Timer timer = new Timer();
+        timer.start();
+        double[][] graph = loadLocal(args[1]);
+        timer.stop();
+        System.out.println("File read in: " + timer);
+
+        timer.start();
+        LocalEngine engine = new LocalEngine(graph, Constant.float32);
+        java.util.ArrayList<Integer> exemplars = engine.run();
+        timer.stop();
+        System.out.println("Job done U_U after " + engine.iterations() + " iterations and " + timer);
+        System.out.println("Exemplars: " + exemplars);
+
+        if(Constant.labels) {
+            timer.start();
+            int[] labels = Labels.assign(graph, exemplars);
+            try {
+                Labels.write(Constant.labelsFile, labels);
+            } catch (java.io.IOException e) {
+                System.out.println("Labels not written: " + e.getMessage());
+            }
+            timer.stop();
+            System.out.println("Labels written to " + Constant.labelsFile + " in: " + timer);
+        }
+    }
+
+    /**
+     * Load file
+     * Run the shared memory engine in double and in single precision
+     * and compare the exemplars.
+     * The single precision run is the one of the nodes in Constant.float32 mode.
+     * @param args "check" and the input file, text or binary
+     * @see LocalEngine
+     */
+    private static void checkPrecision(String[] args) {
+        if(args.length < 2) {
+            System.out.println("Usage: check file");
+            return;
+        }
+
+        double[][] graph = loadLocal(args[1]);
+        double[][] copy = new double[graph.length][];
+        for(int i = 0; i < graph.length; i++) copy[i] = graph[i].clone();
+
+        LocalEngine engine64 = new LocalEngine(graph, false);
+        java.util.ArrayList<Integer> exemplars64 = engine64.run();
+        System.out.println("double after " + engine64.iterations() + " iterations: " + exemplars64);
+
+        LocalEngine engine32 = new LocalEngine(copy, true);
+        java.util.ArrayList<Integer> exemplars32 = engine32.run();
+        System.out.println("float after " + engine32.iterations() + " iterations: " + exemplars32);
+
+        System.out.println("Same exemplars: " + exemplars64.equals(exemplars32));
+    }
+
+    /**
+     * Read a whole graph in memory
+     * @param file text or binary
+     * @return s(i,k)
+     */
+    private static double[][] loadLocal(String file) {
+        if(!SimilarityFile.isBinary(file))
+            return Util.buildGraph(file," ",null,true,Constant.sigma);
+
+        SimilarityFile mapped = openBinary(file);
+        double[][] graph = new double[mapped.size][];
+        for(int i = 0; i < mapped.size; i++) graph[i] = mapped.denseRow(i);
+        return graph;
+    }
+
+    /**
+     * Write a binary similarity file from a text one
+     * @param args "convert", input file, output file,
+     *             optionally the format (dense64 by default)
+     *             and "csv" if the input is a matrix instead of triples
+     * @see SimilarityFile
+     */
+    private static void convert(String[] args) {
+        if(args.length < 3) {
+            System.out.println("Usage: convert input output [dense64|dense32|csr] [csv]");
+            return;
+        }
+        String format = args.length > 3 ? args[3] : "dense64";
+        boolean csv = args.length > 4 && args[4].equals("csv");
+
+        Timer timer = new Timer();
+        timer.start();
+        try {
+            SimilarityFile.convert(args[1], args[2], format, csv);
+        } catch (java.io.IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        timer.stop();
+        System.out.println("File converted in: " + timer);
+    }
+
+    /**
+     * Map a binary similarity file
+     * @param file location of the file
+     * @return mapped file
+     */
+    private static SimilarityFile openBinary(String file) {
+        try {
+            return SimilarityFile.open(file);
+        } catch (java.io.IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+            return null;
+        }
     }
 
     private static void startLookupSystem() {
         if(debug)
-            ActorSystem.create("lookupSystem", ConfigFactory.load("testLookup"));
+            ActorSystem.create("lookupSystem", config("testLookup"));
         else
-            ActorSystem.create("lookupSystem", ConfigFactory.load("remoteLookup"));
+            ActorSystem.create("lookupSystem", config("remoteLookup"));
 
         System.out.println("Started LookupSystem");
     }
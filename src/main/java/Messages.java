@@ -1,4 +1,5 @@
 import akka.actor.ActorRef;
+import java.util.ArrayList;
 
 /**
  * Class for collecting exchanged messages
@@ -14,10 +15,16 @@ interface Messages {
 class Responsibility implements Messages {
     public final double value;
     public final int sender;
+    public final int job;
 
     public Responsibility (double value, int sender){
+        this(value, sender, 0);
+    }
+
+    public Responsibility (double value, int sender, int job){
         this.value = value;
         this.sender = sender;
+        this.job = job;
     }
 }
 
@@ -27,23 +34,170 @@ class Responsibility implements Messages {
 class Availability implements Messages {
     public final double value;
     public final int sender;
+    public final int job;
 
     public Availability (double value, int sender){
+        this(value, sender, 0);
+    }
+
+    public Availability (double value, int sender, int job){
+        this.value = value;
+        this.sender = sender;
+        this.job = job;
+    }
+}
+
+/**
+ * Responsibility in single precision
+ * @see Constant#float32
+ */
+class FloatResponsibility implements Messages {
+    public final float value;
+    public final int sender;
+    public final int job;
+
+    public FloatResponsibility (float value, int sender){
+        this(value, sender, 0);
+    }
+
+    public FloatResponsibility (float value, int sender, int job){
         this.value = value;
         this.sender = sender;
+        this.job = job;
+    }
+}
+
+/**
+ * Availability in single precision
+ * @see Constant#float32
+ */
+class FloatAvailability implements Messages {
+    public final float value;
+    public final int sender;
+    public final int job;
+
+    public FloatAvailability (float value, int sender){
+        this(value, sender, 0);
+    }
+
+    public FloatAvailability (float value, int sender, int job){
+        this.value = value;
+        this.sender = sender;
+        this.job = job;
+    }
+}
+
+/**
+ * Responsibility batch
+ * Values sent from a node to all the receivers hosted by the same router.
+ * values[i] is the responsibility addressed to receivers[i]
+ */
+class ResponsibilityBatch implements Messages {
+    public final int sender;
+    public final int[] receivers;
+    public final double[] values;
+
+    public ResponsibilityBatch(int sender, int[] receivers, double[] values){
+        this.sender = sender;
+        this.receivers = receivers;
+        this.values = values;
+    }
+}
+
+/**
+ * Availability batch
+ * Values sent from a node to all the receivers hosted by the same router.
+ * values[i] is the availability addressed to receivers[i]
+ */
+class AvailabilityBatch implements Messages {
+    public final int sender;
+    public final int[] receivers;
+    public final double[] values;
+
+    public AvailabilityBatch(int sender, int[] receivers, double[] values){
+        this.sender = sender;
+        this.receivers = receivers;
+        this.values = values;
+    }
+}
+
+/**
+ * Responsibility batch in single precision.
+ * Same layout of ResponsibilityBatch
+ * @see Constant#float32
+ */
+class FloatResponsibilityBatch implements Messages {
+    public final int sender;
+    public final int[] receivers;
+    public final float[] values;
+
+    public FloatResponsibilityBatch(int sender, int[] receivers, float[] values){
+        this.sender = sender;
+        this.receivers = receivers;
+        this.values = values;
+    }
+}
+
+/**
+ * Availability batch in single precision.
+ * Same layout of AvailabilityBatch
+ * @see Constant#float32
+ */
+class FloatAvailabilityBatch implements Messages {
+    public final int sender;
+    public final int[] receivers;
+    public final float[] values;
+
+    public FloatAvailabilityBatch(int sender, int[] receivers, float[] values){
+        this.sender = sender;
+        this.receivers = receivers;
+        this.values = values;
+    }
+}
+
+/**
+ * Responsibility vector
+ * All the responsibilities of an iteration, from the router to a node.
+ * values[i] is the responsibility sent by senders[i]
+ */
+class ResponsibilityVector implements Messages {
+    public final int[] senders;
+    public final double[] values;
+
+    public ResponsibilityVector(int[] senders, double[] values){
+        this.senders = senders;
+        this.values = values;
+    }
+}
+
+/**
+ * Availability vector
+ * All the availabilities of an iteration, from the router to a node.
+ * values[i] is the availability sent by senders[i]
+ */
+class AvailabilityVector implements Messages {
+    public final int[] senders;
+    public final double[] values;
+
+    public AvailabilityVector(int[] senders, double[] values){
+        this.senders = senders;
+        this.values = values;
     }
 }
 
 /**
  * Neighbors class
  * Provides information on links to cluster nodes
+ * and, when batching, on the router of each of them
  */
 class Neighbors implements Messages {
     public final ActorRef[] array;
+    public final ActorRef[] routers;
     public final int size;
 
-    public Neighbors(ActorRef[] array, int size){
+    public Neighbors(ActorRef[] array, ActorRef[] routers, int size){
         this.array = array;
+        this.routers = routers;
         this.size = size;
     }
 }
@@ -51,16 +205,181 @@ class Neighbors implements Messages {
 /**
  * Initialize class
  * Provides information about the identity that the node will have to assume
+ * If the indexes are not null the similarities are sparse:
+ * similarity_row[p] = s(selfID, row_index[p])
+ * similarity_col[p] = s(col_index[p], selfID)
+ * and all the other pairs are -INF
  */
 class Initialize implements Messages {
     public final double[] similarity_row;
     public final double[] similarity_col;
+    public final int[] row_index;
+    public final int[] col_index;
     public final int selfID;
+    public final double[] a_seed;
+    public final double[] r_seed;
 
     public Initialize(double[] similarity_row, double[] similarity_col, int selfID) {
+        this(similarity_row, null, similarity_col, null, selfID);
+    }
+
+    public Initialize(double[] similarity_row, int[] row_index, double[] similarity_col, int[] col_index, int selfID) {
+        this(similarity_row, row_index, similarity_col, col_index, selfID, null, null);
+    }
+
+    public Initialize(double[] similarity_row, int[] row_index, double[] similarity_col, int[] col_index, int selfID,
+                      double[] a_seed, double[] r_seed) {
         this.similarity_row = similarity_row;
         this.similarity_col = similarity_col;
+        this.row_index = row_index;
+        this.col_index = col_index;
         this.selfID = selfID;
+        this.a_seed = a_seed;
+        this.r_seed = r_seed;
+    }
+}
+
+/**
+ * Initialize in single precision.
+ * Same layout of Initialize
+ * @see Constant#float32
+ */
+class FloatInitialize implements Messages {
+    public final float[] similarity_row;
+    public final float[] similarity_col;
+    public final int[] row_index;
+    public final int[] col_index;
+    public final int selfID;
+    public final float[] a_seed;
+    public final float[] r_seed;
+
+    public FloatInitialize(float[] similarity_row, int[] row_index, float[] similarity_col, int[] col_index, int selfID,
+                           float[] a_seed, float[] r_seed) {
+        this.similarity_row = similarity_row;
+        this.similarity_col = similarity_col;
+        this.row_index = row_index;
+        this.col_index = col_index;
+        this.selfID = selfID;
+        this.a_seed = a_seed;
+        this.r_seed = r_seed;
+    }
+
+    /**
+     * Rounding of an initialization in double precision
+     * @param init initialization
+     */
+    public FloatInitialize(Initialize init) {
+        this(Util.toFloat(init.similarity_row), init.row_index,
+                Util.toFloat(init.similarity_col), init.col_index, init.selfID,
+                init.a_seed == null ? null : Util.toFloat(init.a_seed),
+                init.r_seed == null ? null : Util.toFloat(init.r_seed));
+    }
+}
+
+/**
+ * Responsibility sub-matrix between two blocks
+ * values[i * cols + k] = r(i,k)
+ * for i in the sender block and k in the receiver block
+ */
+class BlockResponsibility implements Messages {
+    public final double[] values;
+    public final int sender;
+
+    public BlockResponsibility(double[] values, int sender){
+        this.values = values;
+        this.sender = sender;
+    }
+}
+
+/**
+ * Availability sub-matrix between two blocks
+ * values[k * rows + i] = a(i,k)
+ * for k in the sender block and i in the receiver block
+ */
+class BlockAvailability implements Messages {
+    public final double[] values;
+    public final int sender;
+
+    public BlockAvailability(double[] values, int sender){
+        this.values = values;
+        this.sender = sender;
+    }
+}
+
+/**
+ * Blocks class
+ * Provides information on links to cluster blocks
+ * and on the range of points each block owns
+ */
+class Blocks implements Messages {
+    public final ActorRef[] array;
+    public final int[] bounds;
+    public final int size;
+
+    public Blocks(ActorRef[] array, int[] bounds, int size){
+        this.array = array;
+        this.bounds = bounds;
+        this.size = size;
+    }
+}
+
+/**
+ * InitializeBlock class
+ * Provides information about the range of points that the block node will own.
+ * similarity_rows[i] is the row of point from + i,
+ * similarity_cols[k] is the column of point from + k
+ */
+class InitializeBlock implements Messages {
+    public final double[][] similarity_rows;
+    public final double[][] similarity_cols;
+    public final int from;
+    public final int blockID;
+
+    public InitializeBlock(double[][] similarity_rows, double[][] similarity_cols, int from, int blockID) {
+        this.similarity_rows = similarity_rows;
+        this.similarity_cols = similarity_cols;
+        this.from = from;
+        this.blockID = blockID;
+    }
+}
+
+/**
+ * Initialization by reference, instead of Initialize or InitializeBlock:
+ * the node reads the rows and columns [from, to)
+ * from its host's copy of a binary similarity file.
+ * size and entries are those of the dispatcher's file, to detect a different copy.
+ * id is the selfID of a node or the blockID of a block node
+ * @see Constant#nodeLoad
+ */
+class Load implements Messages {
+    public final String file;
+    public final int size;
+    public final long entries;
+    public final int from;
+    public final int to;
+    public final int id;
+
+    public Load(String file, int size, long entries, int from, int to, int id) {
+        this.file = file;
+        this.size = size;
+        this.entries = entries;
+        this.from = from;
+        this.to = to;
+        this.id = id;
+    }
+}
+
+/**
+ * Message from a node to the dispatcher:
+ * the vectors of a Load could not be read, the run is aborted
+ */
+class LoadFailed implements Messages {
+    public final int id;
+    public final String reason;
+
+    public LoadFailed(int id, String reason) {
+        this.id = id;
+        this.reason = reason;
     }
 }
 
@@ -70,21 +389,161 @@ class Initialize implements Messages {
  * Defines which iteration is related
  */
 class Value implements Messages {
-    public final Double value;
+    public final double value;
     public final int sender;
     public final long iteration;
 
-    public Value(Double value, int sender, long iteration){
+    public Value(double value, int sender, long iteration){
         this.value = value;
         this.sender = sender;
         this.iteration = iteration;
     }
 }
 
+/**
+ * Values for cluster's creation
+ * It's send from block nodes to aggregator.
+ * values[i] refers to node from + i
+ */
+class Values implements Messages {
+    public final double[] values;
+    public final int from;
+    public final long iteration;
+
+    public Values(double[] values, int from, long iteration){
+        this.values = values;
+        this.from = from;
+        this.iteration = iteration;
+    }
+}
+
+/**
+ * Flip of the local decision of a node
+ * It's send from nodes to their sub aggregator when convergence is hierarchical.
+ * exemplar : r(i,i) + a(i,i) &gt; 0 at the given iteration, and not at the previous one
+ */
+class Flip implements Messages {
+    public final int sender;
+    public final long iteration;
+    public final boolean exemplar;
+
+    public Flip(int sender, long iteration, boolean exemplar){
+        this.sender = sender;
+        this.iteration = iteration;
+        this.exemplar = exemplar;
+    }
+}
+
+/**
+ * Progress of a node
+ * It's send from nodes to their sub aggregator every Constant.progressEach iterations.
+ * All the flips up to the given iteration were already sent
+ */
+class Progress implements Messages {
+    public final int sender;
+    public final long iteration;
+
+    public Progress(int sender, long iteration){
+        this.sender = sender;
+        this.iteration = iteration;
+    }
+}
+
+/**
+ * Progress of all the nodes of a host
+ * It's send from sub aggregators to the aggregator.
+ * iteration : all the nodes of the host reached it
+ * changed, exemplar : decisions changed since the previous message
+ * lastFlip : last iteration with a flip on the host
+ */
+class HostProgress implements Messages {
+    public final long iteration;
+    public final int[] changed;
+    public final boolean[] exemplar;
+    public final long lastFlip;
+
+    public HostProgress(long iteration, int[] changed, boolean[] exemplar, long lastFlip){
+        this.iteration = iteration;
+        this.changed = changed;
+        this.exemplar = exemplar;
+        this.lastFlip = lastFlip;
+    }
+}
+
+/**
+ * Metrics of one iteration of a node
+ * It's send from nodes to aggregator when metrics are enabled.
+ * nanos : time elapsed since the end of the previous iteration
+ * responsibilities, availabilities : messages received in the iteration
+ * bytes : serialized size of the messages sent in the iteration
+ * mailbox : greatest number of queued messages in the iteration, -1 if unknown
+ * creditWait : time spent waiting for credits in the iteration
+ */
+class Metrics implements Messages {
+    public final int sender;
+    public final long iteration;
+    public final long nanos;
+    public final int responsibilities;
+    public final int availabilities;
+    public final long bytes;
+    public final int mailbox;
+    public final long creditWait;
+
+    public Metrics(int sender, long iteration, long nanos, int responsibilities, int availabilities, long bytes, int mailbox,
+                   long creditWait){
+        this.sender = sender;
+        this.iteration = iteration;
+        this.nanos = nanos;
+        this.responsibilities = responsibilities;
+        this.availabilities = availabilities;
+        this.bytes = bytes;
+        this.mailbox = mailbox;
+        this.creditWait = creditWait;
+    }
+}
+
 /**
  * Node hello message for the dispatcher
+ * Carries the router of the node, null if not batching,
+ * and the point the node is deployed for, -1 if any
+ * @see Placement
  */
 class Self implements Messages {
+    public final ActorRef router;
+    public final int id;
+
+    public Self(ActorRef router){
+        this(router, -1);
+    }
+
+    public Self(ActorRef router, int id){
+        this.router = router;
+        this.id = id;
+    }
+}
+
+/**
+ * Message from the node to its router:
+ * Declares the node and the number of values it expects each iteration
+ */
+class Register implements Messages {
+    public final int selfID;
+    public final int r_expected;
+    public final int a_expected;
+
+    public Register(int selfID, int r_expected, int a_expected){
+        this.selfID = selfID;
+        this.r_expected = r_expected;
+        this.a_expected = a_expected;
+    }
+}
+
+/**
+ * Message from a router to a node:
+ * a batch of the node has been handled, one more may be sent
+ * @see Flow
+ */
+class Credit implements Messages {
 
 }
 
@@ -98,9 +557,18 @@ class Die implements Messages{
 /**
  * Start Message for Nodes: All nodes have completed initialization operations.
  * The algorithm can begin.
+ * Nodes inserted in a running cluster begin at the iteration of their membership.
  */
 class Start implements Messages {
+    public final long iteration;
 
+    public Start(){
+        this(0);
+    }
+
+    public Start(long iteration){
+        this.iteration = iteration;
+    }
 }
 
 /**
@@ -109,4 +577,279 @@ class Start implements Messages {
  */
 class Ready implements Messages {
 
-}
\ No newline at end of file
+}
+
+/**
+ * Message from the job server to a pooled node:
+ * join a job, with the dispatcher and the aggregator of that job.
+ * The node answers to the dispatcher as a newly created node does.
+ * Values of other jobs still in flight are discarded by their tag.
+ */
+class Assign implements Messages {
+    public final int job;
+    public final ActorRef aggregator;
+    public final ActorRef dispatcher;
+
+    public Assign(int job, ActorRef aggregator, ActorRef dispatcher){
+        this.job = job;
+        this.aggregator = aggregator;
+        this.dispatcher = dispatcher;
+    }
+}
+
+/**
+ * Message from the job server to a pooled node:
+ * the job is over, drop its state and wait for the next one
+ */
+class Reset implements Messages {
+
+}
+
+/**
+ * Local message to the job server: a loaded dataset to cluster.
+ * Exactly one of graph, sparse and mapped is set
+ */
+class Submit implements Messages {
+    public final String name;
+    public final double[][] graph;
+    public final SparseGraph sparse;
+    public final SimilarityFile mapped;
+    public final int size;
+
+    public Submit(String name, double[][] graph, SparseGraph sparse, SimilarityFile mapped, int size){
+        this.name = name;
+        this.graph = graph;
+        this.sparse = sparse;
+        this.mapped = mapped;
+        this.size = size;
+    }
+}
+
+/**
+ * Local message from the aggregator of a job to the job server
+ */
+class JobDone implements Messages {
+    public final int job;
+    public final ArrayList<Integer> exemplars;
+    public final long iterations;
+
+    public JobDone(int job, ArrayList<Integer> exemplars, long iterations){
+        this.job = job;
+        this.exemplars = exemplars;
+        this.iterations = iterations;
+    }
+}
+
+/**
+ * Local message from the dispatcher of a job to the job server:
+ * the job is aborted
+ */
+class JobFailed implements Messages {
+    public final int job;
+    public final String reason;
+
+    public JobFailed(int job, String reason){
+        this.job = job;
+        this.reason = reason;
+    }
+}
+
+/**
+ * Local message to the job server: no more datasets will be submitted.
+ * In live mode, to the aggregator: no more points will be inserted
+ */
+class Shutdown implements Messages {
+
+}
+
+/**
+ * Message from the aggregator to a node at termination:
+ * send your state for the snapshot
+ * @see Snapshot
+ */
+class Dump implements Messages {
+
+}
+
+/**
+ * State of a node at termination.
+ * r_values[p] = r(r_index[p], sender), a_values[p] = a(sender, a_index[p]).
+ * Indexes are null if the vectors are dense.
+ */
+class State implements Messages {
+    public final int sender;
+    public final int[] r_index;
+    public final double[] r_values;
+    public final int[] a_index;
+    public final double[] a_values;
+
+    public State(int sender, int[] r_index, double[] r_values, int[] a_index, double[] a_values){
+        this.sender = sender;
+        this.r_index = r_index;
+        this.r_values = r_values;
+        this.a_index = a_index;
+        this.a_values = a_values;
+    }
+}
+
+/**
+ * Message from the aggregator to a node at termination:
+ * send the exemplar of your points
+ * @see Labels
+ */
+class Label implements Messages {
+    public final int[] exemplars;
+
+    public Label(int[] exemplars){
+        this.exemplars = exemplars;
+    }
+}
+
+/**
+ * Exemplar of the points [from, from + exemplars.length)
+ */
+class Labeled implements Messages {
+    public final int from;
+    public final int[] exemplars;
+
+    public Labeled(int from, int[] exemplars){
+        this.from = from;
+        this.exemplars = exemplars;
+    }
+}
+
+/**
+ * Report of a node to the dispatcher: checkpoint of an iteration written
+ * @see Checkpoint
+ */
+class Checkpointed implements Messages {
+    public final int sender;
+    public final long iteration;
+
+    public Checkpointed(int sender, long iteration){
+        this.sender = sender;
+        this.iteration = iteration;
+    }
+}
+
+/**
+ * Message from the dispatcher to all the nodes after a failure:
+ * roll back to the checkpoint of iteration, -1 to start over,
+ * with the failed nodes replaced in array.
+ * Values are then tagged with generation.
+ */
+class Restore implements Messages {
+    public final long iteration;
+    public final int generation;
+    public final ActorRef[] array;
+
+    public Restore(long iteration, int generation, ActorRef[] array){
+        this.iteration = iteration;
+        this.generation = generation;
+        this.array = array;
+    }
+}
+
+/**
+ * Answer of a node to Restore, instead of Ready:
+ * its checkpoint of iteration is missing or unreadable
+ * @see Checkpoint
+ */
+class CheckpointMissing implements Messages {
+    public final int sender;
+    public final long iteration;
+
+    public CheckpointMissing(int sender, long iteration){
+        this.sender = sender;
+        this.iteration = iteration;
+    }
+}
+
+/**
+ * Local message to the dispatcher: watch the nodes,
+ * and replace the failed ones on the remaining hosts
+ */
+class Supervise implements Messages {
+    public final akka.actor.Address[] hosts;
+    public final ActorRef aggregator;
+
+    public Supervise(akka.actor.Address[] hosts, ActorRef aggregator){
+        this.hosts = hosts;
+        this.aggregator = aggregator;
+    }
+}
+
+/**
+ * Local message to the dispatcher: points to add to the running cluster.
+ * Triples involve at least one new point,
+ * new points follow the current ones.
+ * Triples between current points are ignored.
+ * s(n,n) of a new point n is its preference, computed as at load if missing.
+ * @see Membership
+ */
+class Insert implements Messages {
+    public final Triples triples;
+    public final akka.actor.Address[] hosts;
+    public final ActorRef aggregator;
+
+    public Insert(Triples triples, akka.actor.Address[] hosts, ActorRef aggregator){
+        this.triples = triples;
+        this.hosts = hosts;
+        this.aggregator = aggregator;
+    }
+}
+
+/**
+ * Message from the dispatcher to the nodes before an insertion:
+ * do not start the next iteration until the membership is known
+ */
+class Hold implements Messages {
+
+}
+
+/**
+ * Reply of a node to Hold, with its current iteration
+ */
+class Held implements Messages {
+    public final int sender;
+    public final long iteration;
+
+    public Held(int sender, long iteration){
+        this.sender = sender;
+        this.iteration = iteration;
+    }
+}
+
+/**
+ * New membership of the cluster, from iteration epoch on.
+ * row[j] = s(k, old size + j), col[j] = s(old size + j, k) for the receiving node k
+ */
+class Membership implements Messages {
+    public final long epoch;
+    public final int size;
+    public final ActorRef[] array;
+    public final double[] row;
+    public final double[] col;
+
+    public Membership(long epoch, int size, ActorRef[] array, double[] row, double[] col){
+        this.epoch = epoch;
+        this.size = size;
+        this.array = array;
+        this.row = row;
+        this.col = col;
+    }
+}
+
+/**
+ * Local message from the dispatcher to the aggregator:
+ * from iteration epoch on, values are sent by size nodes
+ */
+class Resize implements Messages {
+    public final long epoch;
+    public final int size;
+
+    public Resize(long epoch, int size){
+        this.epoch = epoch;
+        this.size = size;
+    }
+}
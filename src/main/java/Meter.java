@@ -0,0 +1,111 @@
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+
+import java.util.HashMap;
+
+/**
+ * Class for counting the work of a node in one iteration.
+ *
+ * Bytes are the serialized size of the sent messages,
+ * whether or not they actually leave the host.
+ * Messages of fixed size are serialized once for each class,
+ * the others each time they are sent.
+ *
+ * @author Simone Schirinzi
+ * @see Metrics
+ */
+class Meter {
+    private final Serialization serialization;
+    private final ActorRef owner;
+
+    /**
+     * Serialized size of the messages of fixed size
+     */
+    private final HashMap<Class<?>, Integer> sizes = new HashMap<>();
+
+    private long start;
+    private int responsibilities;
+    private int availabilities;
+    private long bytes;
+    private long creditWait;
+
+    /**
+     * Create a meter and start the first iteration
+     * @param system of the node
+     * @param owner the node
+     */
+    Meter(ActorSystem system, ActorRef owner){
+        this.serialization = SerializationExtension.get(system);
+        this.owner = owner;
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * A responsibility message is received
+     */
+    void responsibility(){
+        responsibilities++;
+    }
+
+    /**
+     * An availability message is received
+     */
+    void availability(){
+        availabilities++;
+    }
+
+    /**
+     * Messages of fixed size are sent
+     * @param sample one of the messages
+     * @param count number of messages
+     */
+    void sent(Object sample, int count){
+        Integer size = sizes.get(sample.getClass());
+        if (size == null) {
+            size = size(sample);
+            sizes.put(sample.getClass(), size);
+        }
+        bytes += (long) size * count;
+    }
+
+    /**
+     * A message of variable size is sent
+     * @param message sent
+     */
+    void sent(Object message){
+        bytes += size(message);
+    }
+
+    /**
+     * Time is spent waiting for credits
+     * @param nanos waited
+     * @see Flow
+     */
+    void waited(long nanos){
+        creditWait += nanos;
+    }
+
+    /**
+     * End the iteration and start the next one
+     * @param sender node identifier
+     * @param iteration ended
+     * @return metrics of the ended iteration
+     */
+    Metrics iteration(int sender, long iteration){
+        long now = System.nanoTime();
+        MeteredMailbox.Queue queue = MeteredMailbox.of(owner);
+        Metrics ret = new Metrics(sender, iteration, now - start, responsibilities, availabilities, bytes,
+                queue == null ? -1 : queue.resetMax(), creditWait);
+
+        start = now;
+        responsibilities = availabilities = 0;
+        bytes = creditWait = 0;
+        return ret;
+    }
+
+    private int size(Object message){
+        return serialization.findSerializerFor(message).toBinary(message).length;
+    }
+}
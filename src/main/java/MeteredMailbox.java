@@ -0,0 +1,100 @@
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedMessageQueueSemantics;
+import com.typesafe.config.Config;
+import scala.Option;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class for unbounded mailboxes that track their greatest depth.
+ * Selected with Props.withDispatcher("metered-dispatcher"), see common.conf.
+ *
+ * Akka gives an actor no access to its own mailbox,
+ * so each queue is registered under the reference of its owner
+ * and the owner looks it up.
+ *
+ * @author Simone Schirinzi
+ */
+class MeteredMailbox implements MailboxType, ProducesMessageQueue<MeteredMailbox.Queue> {
+    /**
+     * Queue of each live actor with this mailbox
+     */
+    private static final ConcurrentHashMap<ActorRef, Queue> queues = new ConcurrentHashMap<>();
+
+    /**
+     * Created by Akka from the configuration
+     * @param settings of the system
+     * @param config of the mailbox
+     */
+    public MeteredMailbox(ActorSystem.Settings settings, Config config){
+    }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        Queue queue = new Queue();
+        if (owner.isDefined()) queues.put(owner.get(), queue);
+        return queue;
+    }
+
+    /**
+     * @param owner actor
+     * @return queue of the actor, null if it does not use this mailbox
+     */
+    static Queue of(ActorRef owner){
+        return queues.get(owner);
+    }
+
+    /**
+     * Unbounded queue counting its messages
+     */
+    static class Queue implements MessageQueue, UnboundedMessageQueueSemantics {
+        private final ConcurrentLinkedQueue<Envelope> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicInteger max = new AtomicInteger();
+
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            queue.offer(handle);
+            int current = size.incrementAndGet();
+            max.accumulateAndGet(current, Math::max);
+        }
+
+        @Override
+        public Envelope dequeue() {
+            Envelope envelope = queue.poll();
+            if (envelope != null) size.decrementAndGet();
+            return envelope;
+        }
+
+        @Override
+        public int numberOfMessages() {
+            return size.get();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            queues.remove(owner);
+            Envelope envelope;
+            while ((envelope = dequeue()) != null) deadLetters.enqueue(owner, envelope);
+        }
+
+        /**
+         * @return greatest depth since the previous call
+         */
+        int resetMax(){
+            return max.getAndSet(size.get());
+        }
+    }
+}
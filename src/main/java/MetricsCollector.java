@@ -0,0 +1,150 @@
+import akka.actor.AbstractActor;
+import akka.actor.Props;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class for collecting the metrics of the nodes.
+ *
+ * Once the metrics of an iteration are received from all the actors,
+ * a line is written to Constant.metricsFile:
+ * the distribution of the iteration time over the actors (min, median, 90th percentile, max),
+ * the slowest actor, the messages received, the bytes sent
+ * the greatest mailbox depth and the time spent waiting for credits.
+ * The totals of each host are written when the collector stops.
+ *
+ * @author Simone Schirinzi
+ */
+class MetricsCollector extends AbstractActor {
+    /**
+     * number of actors sending metrics
+     */
+    private final int actors;
+
+    /**
+     * Iterations for which not all the metrics are received
+     */
+    private final HashMap<Long, Iteration> iterations = new HashMap<>();
+
+    /**
+     * Totals of each host : iterations, nanos, responsibilities, availabilities, bytes, max mailbox, credit wait nanos
+     */
+    private final LinkedHashMap<String, long[]> hosts = new LinkedHashMap<>();
+
+    private PrintWriter out;
+
+    static Props props(int actors) {
+        return Props.create(MetricsCollector.class, () -> new MetricsCollector(actors));
+    }
+
+    private MetricsCollector(int actors){
+        this.actors = actors;
+    }
+
+    @Override
+    public void preStart() throws FileNotFoundException, UnsupportedEncodingException {
+        out = new PrintWriter(Constant.metricsFile, "UTF-8");
+        out.println("iteration,actors,min_ms,p50_ms,p90_ms,max_ms,slowest,responsibilities,availabilities,bytes,max_mailbox,credit_wait_ms");
+    }
+
+    /**
+     * Write the totals of each host
+     */
+    @Override
+    public void postStop() throws FileNotFoundException, UnsupportedEncodingException {
+        out.close();
+
+        try (PrintWriter host = new PrintWriter("hosts-" + Constant.metricsFile, "UTF-8")) {
+            host.println("host,reports,total_ms,responsibilities,availabilities,bytes,max_mailbox,credit_wait_ms");
+            for (Map.Entry<String, long[]> entry : hosts.entrySet()) {
+                long[] t = entry.getValue();
+                host.println(entry.getKey() + "," + t[0] + "," + t[1] / 1e6 + "," + t[2] + "," + t[3] + "," + t[4] + "," + t[5] + "," + t[6] / 1e6);
+            }
+        }
+    }
+
+    /**
+     * Actor messages handler
+     * @see Metrics
+     * @return receive handler
+     */
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Metrics.class, this::metricsHandler)
+                .build();
+    }
+
+    /**
+     * Add the metrics of an actor to its iteration and to its host
+     * @param msg received
+     */
+    private void metricsHandler(Metrics msg){
+        long[] host = hosts.computeIfAbsent(sender().path().address().toString(), h -> new long[7]);
+        host[0]++;
+        host[1] += msg.nanos;
+        host[2] += msg.responsibilities;
+        host[3] += msg.availabilities;
+        host[4] += msg.bytes;
+        host[5] = Math.max(host[5], msg.mailbox);
+        host[6] += msg.creditWait;
+
+        Iteration current = iterations.computeIfAbsent(msg.iteration, i -> new Iteration(actors));
+        current.add(msg);
+        if (current.count == actors) {
+            out.println(current.line(msg.iteration));
+            iterations.remove(msg.iteration);
+        }
+    }
+
+    /**
+     * Metrics of one iteration
+     */
+    private static class Iteration {
+        private final long[] nanos;
+        private final int[] senders;
+        private int count;
+        private long responsibilities;
+        private long availabilities;
+        private long bytes;
+        private int mailbox = -1;
+        private long creditWait;
+
+        Iteration(int actors){
+            nanos = new long[actors];
+            senders = new int[actors];
+        }
+
+        void add(Metrics msg){
+            nanos[count] = msg.nanos;
+            senders[count] = msg.sender;
+            count++;
+            responsibilities += msg.responsibilities;
+            availabilities += msg.availabilities;
+            bytes += msg.bytes;
+            mailbox = Math.max(mailbox, msg.mailbox);
+            creditWait += msg.creditWait;
+        }
+
+        String line(long iteration){
+            int slowest = 0;
+            for (int i = 1; i < count; i++) if (nanos[i] > nanos[slowest]) slowest = i;
+
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            return iteration + "," + count
+                    + "," + sorted[0] / 1e6
+                    + "," + sorted[(count - 1) / 2] / 1e6
+                    + "," + sorted[(int) ((count - 1) * 0.9)] / 1e6
+                    + "," + sorted[count - 1] / 1e6
+                    + "," + senders[slowest]
+                    + "," + responsibilities + "," + availabilities + "," + bytes + "," + mailbox + "," + creditWait / 1e6;
+        }
+    }
+}
@@ -1,4 +1,8 @@
 import akka.actor.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.stream.IntStream;
 
 /**
@@ -25,6 +29,53 @@ class Node extends AbstractActor{
     @SuppressWarnings("CanBeFinal")
     private ActorRef aggregator;
 
+    /**
+     * Link to the router of the host on which the node runs.
+     * Received when creating the node.
+     * Null if the messages are not batched.
+     */
+    @SuppressWarnings("CanBeFinal")
+    private ActorRef router;
+
+    /**
+     * Point for which the node is deployed, sent with its hello message.
+     * Received when creating the node.
+     * -1 if the dispatcher assigns the next point.
+     * @see Placement
+     */
+    @SuppressWarnings("CanBeFinal")
+    private int point = -1;
+
+    /**
+     * Flag set when the node reports to the sub aggregator of its host,
+     * as Constant.hierarchical asks.
+     * Pooled nodes report every value to the aggregator of their job.
+     * @see SubAggregator
+     */
+    private final boolean hierarchical;
+
+    /**
+     * Job to which the node belongs.
+     * Values tagged with another job are discarded.
+     * Outside the job server, 0 increased at each recovery,
+     * -1 for an idle pooled node.
+     * @see JobServer
+     * @see Restore
+     */
+    private int job;
+
+    /**
+     * Counters of the current iteration.
+     * Null if metrics are not enabled.
+     */
+    private Meter meter;
+
+    /**
+     * Local decision at the last iteration : r(i,i) + a(i,i) &gt; 0.
+     * Used when convergence is hierarchical.
+     */
+    private boolean exemplar;
+
     //------------------
 
     // Received from Initialize
@@ -92,6 +143,28 @@ class Node extends AbstractActor{
      */
     private double[] a_row;
 
+    // Single precision storage
+
+    /**
+     * Flag set when the node receives a FloatInitialize.
+     * s_row32, s_col32, r_col32 and a_row32 are used
+     * in place of s_row, s_col, r_col and a_row, with the same layout.
+     * Values are computed in double precision and rounded when stored.
+     */
+    private boolean float32;
+    private float[] s_row32;
+    private float[] s_col32;
+    private float[] r_col32;
+    private float[] a_row32;
+
+    /**
+     * Warm start: previous a_row and r_col, with the layout of s_row and s_col.
+     * Copied when the vectors are allocated, then dropped.
+     * Null for a cold start.
+     */
+    private double[] a_seed;
+    private double[] r_seed;
+
     // Received values counter
 
     /**
@@ -128,6 +201,14 @@ class Node extends AbstractActor{
      */
     private boolean optimize;
 
+    /**
+     * Flag set when the node receives sparse similarities.
+     * s_row and a_row are indexed by position in r_reference,
+     * s_col and r_col by position in a_reference.
+     * Only the optimized computations are available.
+     */
+    private boolean sparse;
+
     /**
      * Denotes the number of nodes such that s_row[i] = -INF
      */
@@ -160,6 +241,118 @@ class Node extends AbstractActor{
      */
     private int[] a_reference;
 
+    /**
+     * Position of each node in r_col and in a_row,
+     * once the dense vectors are compacted.
+     * r_position[a_reference[k]] == k, a_position[r_reference[j]] == j
+     */
+    private int[] r_position;
+    private int[] a_position;
+
+    // Batching of messages
+
+    /**
+     * Routers to which responsibilities are sent.
+     * r_receivers[g] are the identifiers of the nodes behind r_routers[g].
+     * r_positions[g][j] is the position in the send vector of r_receivers[g][j]
+     */
+    private ActorRef[] r_routers;
+    private int[][] r_receivers;
+    private int[][] r_positions;
+
+    /**
+     * Routers to which availabilities are sent.
+     * Same layout of r_routers
+     */
+    private ActorRef[] a_routers;
+    private int[][] a_receivers;
+    private int[][] a_positions;
+
+    /**
+     * Inboxes of r_receivers[g] and a_receivers[g] when r_routers[g]
+     * or a_routers[g] is the router of the node, null otherwise.
+     * Values for them are written in shared memory instead of batched.
+     * @see Exchange
+     */
+    private Exchange.Inbox[][] r_inboxes;
+    private Exchange.Inbox[][] a_inboxes;
+
+    /**
+     * Credits towards the routers.
+     * Null if messages are not batched or not under flow control.
+     */
+    private Flow flow;
+
+    // Checkpoints
+
+    /**
+     * r_col when all the responsibilities of a checkpoint iteration arrived,
+     * before the faster nodes send those of the next one.
+     * Null outside checkpoint iterations
+     * @see Checkpoint
+     */
+    private double[] r_saved;
+
+    // Insertion of points
+
+    /**
+     * The node does not start iteration holdAt or later
+     * until it knows the membership of that iteration.
+     * Long.MAX_VALUE if no insertion is in progress.
+     * @see Hold
+     */
+    private long holdAt = Long.MAX_VALUE;
+
+    /**
+     * Membership received and not yet applied
+     */
+    private Membership pending;
+
+    /**
+     * Set when the node ended an iteration and holds
+     */
+    private boolean waiting;
+
+    // Bounded staleness
+
+    /**
+     * Flag set when Constant.staleness is positive and messages are not batched.
+     * The node moves on from a phase as soon as every neighbor
+     * has sent at least iteration + 1 - staleness values of that phase,
+     * instead of waiting for the values of the current iteration.
+     */
+    private boolean async;
+
+    /**
+     * Set on Start: values received before are only stored
+     */
+    private boolean running;
+
+    /**
+     * Set between the sending of the availabilities
+     * and the end of the iteration
+     */
+    private boolean availabilityPhase;
+
+    /**
+     * Values received from each slot of r_col and of a_row.
+     * Slots which never receive are set to Integer.MAX_VALUE
+     */
+    private int[] r_count;
+    private int[] a_count;
+
+    /**
+     * Values each slot must have received to move on
+     */
+    private long r_required;
+    private long a_required;
+
+    /**
+     * Number of slots below the required count
+     */
+    private int r_lagging;
+    private int a_lagging;
+
     /**
      * Create a node
      * Initializes iteration variables
@@ -168,10 +361,52 @@ class Node extends AbstractActor{
      * @param dispatcher link to dispatcher
      */
     public Node(ActorRef aggregator, ActorRef dispatcher){
+        this(aggregator, dispatcher, null);
+    }
+
+    /**
+     * Create a pooled node.
+     * It waits for an Assign message of the job server
+     * before it sends its hello message.
+     * @see JobServer
+     */
+    public Node(){
+        this.job = -1;
+        this.hierarchical = false;
+        standardSetting();
+        if (Constant.metrics) meter = new Meter(getContext().system(), self());
+    }
+
+    /**
+     * Create a node whose messages are batched by the router of its host
+     * @param aggregator link to aggregator
+     * @param dispatcher link to dispatcher
+     * @param router link to the router of the host
+     */
+    public Node(ActorRef aggregator, ActorRef dispatcher, ActorRef router){
+        this(aggregator, dispatcher, router, -1);
+    }
+
+    /**
+     * Create the node of a given point,
+     * deployed on the host planned for it
+     * @param aggregator link to aggregator
+     * @param dispatcher link to dispatcher
+     * @param router link to the router of the host, may be null
+     * @param point identifier of the point
+     * @see Placement
+     */
+    public Node(ActorRef aggregator, ActorRef dispatcher, ActorRef router, int point){
+        this.job = 0;
         this.aggregator = aggregator;
         this.dispatcher = dispatcher;
+        this.router = router;
+        this.point = point;
+        this.hierarchical = Constant.hierarchical;
         standardSetting();
-        dispatcher.tell(new Self(),self());
+        if (Constant.metrics) meter = new Meter(getContext().system(), self());
+        if (router != null && Constant.credits > 0) flow = new Flow(self());
+        dispatcher.tell(new Self(router, point),self());
     }
 
     /**
@@ -200,23 +435,85 @@ class Node extends AbstractActor{
      * Receive builder
      * @return Node message manager
      * @see Initialize
+     * @see FloatInitialize
+     * @see Load
      * @see Neighbors
      * @see Start
      * @see Die
      * @see Responsibility
      * @see Availability
+     * @see FloatResponsibility
+     * @see FloatAvailability
+     * @see ResponsibilityVector
+     * @see AvailabilityVector
+     * @see Assign
+     * @see Reset
+     * @see Dump
+     * @see Label
+     * @see Restore
+     * @see Hold
+     * @see Membership
+     * @see Credit
      */
     @Override public Receive createReceive() {
         return receiveBuilder()
                 .match(Initialize.class, this::initializeHandler)
+                .match(FloatInitialize.class, this::floatInitializeHandler)
+                .match(Load.class, this::loadHandler)
                 .match(Neighbors.class, this::neighborsHandler)
                 .match(Die.class, this::dieHandler)
-                .match(Start.class, msg -> sendResponsibility())
+                .match(Start.class, this::start)
                 .match(Responsibility.class, this::responsibilityHandler)
                 .match(Availability.class, this::availabilityHandler)
+                .match(FloatResponsibility.class, this::floatResponsibilityHandler)
+                .match(FloatAvailability.class, this::floatAvailabilityHandler)
+                .match(ResponsibilityVector.class, this::responsibilityVectorHandler)
+                .match(AvailabilityVector.class, this::availabilityVectorHandler)
+                .match(Assign.class, this::assignHandler)
+                .match(Reset.class, msg -> clear())
+                .match(Dump.class, this::dumpHandler)
+                .match(Label.class, this::labelHandler)
+                .match(Restore.class, this::restoreHandler)
+                .match(Hold.class, this::holdHandler)
+                .match(Membership.class, this::membershipHandler)
+                .match(Credit.class, msg -> flow.credit(sender()))
                 .build();
     }
 
+    /**
+     * Handler for the assignment of a pooled node to a job.
+     * The state of the previous job is dropped
+     * and the node greets the dispatcher of the new one
+     * @param assign received message
+     */
+    private void assignHandler(Assign assign){
+        clear();
+        this.job = assign.job;
+        this.aggregator = assign.aggregator;
+        this.dispatcher = assign.dispatcher;
+        dispatcher.tell(new Self(router), self());
+    }
+
+    /**
+     * Drop the state of the current job,
+     * as if the node were newly created
+     */
+    private void clear(){
+        job = -1;
+        aggregator = dispatcher = null;
+        s_row = s_col = r_col = a_row = null;
+        s_row32 = s_col32 = r_col32 = a_row32 = null;
+        neighbors = r_not_infinite_neighbors = a_not_infinite_neighbors = null;
+        r_reference = a_reference = r_position = a_position = null;
+        r_count = a_count = null;
+        a_seed = r_seed = null;
+        pending = null;
+        holdAt = Long.MAX_VALUE;
+        waiting = false;
+        float32 = sparse = async = running = availabilityPhase = exemplar = false;
+        standardSetting();
+    }
+
     /**
      * Handler for the initialization message
      * @param init received message
@@ -225,6 +522,57 @@ class Node extends AbstractActor{
         this.s_col = init.similarity_col;
         this.s_row = init.similarity_row;
         this.self = init.selfID;
+        this.a_seed = init.a_seed;
+        this.r_seed = init.r_seed;
+
+        if (init.row_index != null) {
+            sparse = true;
+            r_reference = init.row_index;
+            a_reference = init.col_index;
+        }
+    }
+
+    /**
+     * Handler for the initialization message in single precision
+     * @param init received message
+     */
+    private void floatInitializeHandler(FloatInitialize init){
+        this.float32 = true;
+        this.s_col32 = init.similarity_col;
+        this.s_row32 = init.similarity_row;
+        this.self = init.selfID;
+        if (init.a_seed != null) {
+            a_seed = new double[init.a_seed.length];
+            r_seed = new double[init.r_seed.length];
+            for (int i = 0; i < a_seed.length; i++) a_seed[i] = init.a_seed[i];
+            for (int i = 0; i < r_seed.length; i++) r_seed[i] = init.r_seed[i];
+        }
+
+        if (init.row_index != null) {
+            sparse = true;
+            r_reference = init.row_index;
+            a_reference = init.col_index;
+        }
+    }
+
+    /**
+     * Handler for the initialization by reference:
+     * the vectors are read from the copy of the similarity file on this host,
+     * in single precision if Constant.float32.
+     * If it cannot be read, the dispatcher aborts the run
+     * @param load received message
+     */
+    private void loadHandler(Load load){
+        Initialize init;
+        try {
+            init = SimilarityFile.shared(load.file, load.size, load.entries).initialize(load.from);
+        } catch (java.io.IOException e) {
+            System.out.println("Similarity file of node " + load.id + " not read: " + e.getMessage());
+            dispatcher.tell(new LoadFailed(load.id, e.getMessage()), self());
+            return;
+        }
+        if (Constant.float32) floatInitializeHandler(new FloatInitialize(init));
+        else initializeHandler(init);
     }
 
     /**
@@ -248,6 +596,13 @@ class Node extends AbstractActor{
      *
      * In addition, the carriers of links to infinite nodes are initialized
      *
+     * If the similarities are sparse, the references are already known:
+     * r_col and a_row are sized to the real degree of the node
+     * and the links to unused neighbors are dropped.
+     *
+     * If the router is set, the receivers are grouped by router
+     * and the node registers itself to its own router.
+     *
      * When finished all operations
      * send a Ready() message to the dispatcher.
      * The node thus remains awaiting a Start() message
@@ -257,18 +612,32 @@ class Node extends AbstractActor{
     private void neighborsHandler(Neighbors neigh){
         this.neighbors = neigh.array;
         this.size = neigh.size;
-        a_row = new double[size];
-        r_col = new double[size];
+        if (sparse) {
+            row_infinity = size - r_reference.length;
+            col_infinity = size - a_reference.length;
 
-        if (optimize) {
+            allocate(r_reference.length, a_reference.length);
+
+            r_not_infinite_neighbors = new ActorRef[r_reference.length];
+            a_not_infinite_neighbors = new ActorRef[a_reference.length];
+            for (int j = 0; j < r_reference.length; j++) r_not_infinite_neighbors[j] = neighbors[r_reference[j]];
+            for (int k = 0; k < a_reference.length; k++) a_not_infinite_neighbors[k] = neighbors[a_reference[k]];
+
+            this.neighbors = null;
+        } else {
+            allocate(size, size);
+        }
+
+        if (optimize && !sparse) {
             for (int i = 0; i < size; i++) {
-                if (Util.isMinDouble(s_col[i])) {
+                if (Util.isMinDouble(sCol(i))) {
                     col_infinity++;
 
                     /* r initialize */
-                    r_col[i] = Util.min_double;
+                    if (float32) r_col32[i] = Float.NEGATIVE_INFINITY;
+                    else r_col[i] = Util.min_double;
                 }
-                if (Util.isMinDouble(s_row[i])) row_infinity++;
+                if (Util.isMinDouble(sRow(i))) row_infinity++;
             }
 
             /* size - row_infinite nodes must receive responsibility message */
@@ -283,12 +652,12 @@ class Node extends AbstractActor{
             /* Vector are set */
             int j = 0, k = 0;
             for (int i = 0; i < size; i++) {
-                if (!Util.isMinDouble(s_row[i])) {
+                if (!Util.isMinDouble(sRow(i))) {
                     r_not_infinite_neighbors[j] = neighbors[i];
                     r_reference[j] = i;
                     j++;
                 }
-                if (!Util.isMinDouble(s_col[i])) {
+                if (!Util.isMinDouble(sCol(i))) {
                     a_not_infinite_neighbors[k] = neighbors[i];
                     a_reference[k] = i;
                     k++;
@@ -296,12 +665,313 @@ class Node extends AbstractActor{
             }
             //assert(j == r_reference.length);
             //assert(j + row_infinity == size);
+
+            /* r(k,k) has no slot once compacted if s(k,k) is -INF */
+            if (Constant.compact && !Util.isMinDouble(sRow(self))) compact();
+        }
+
+        if (a_seed != null) seed();
+
+        if (Constant.staleness > 0 && router == null) {
+            async = true;
+            r_count = new int[sparse ? a_reference.length : size];
+            a_count = new int[sparse ? r_reference.length : size];
+            if (optimize && !sparse)
+                for (int i = 0; i < size; i++) {
+                    if (Util.isMinDouble(sCol(i))) r_count[i] = Integer.MAX_VALUE;
+                    if (Util.isMinDouble(sRow(i))) a_count[i] = Integer.MAX_VALUE;
+                }
+        }
+
+        if (router != null) {
+            int[] r_index = optimize ? r_reference : IntStream.range(0, size).toArray();
+            int[] a_index = optimize ? a_reference : IntStream.range(0, size).toArray();
+
+            r_routers = groupRouters(neigh.routers, r_index);
+            r_receivers = groupReceivers(neigh.routers, r_routers, r_index, false);
+            r_positions = groupReceivers(neigh.routers, r_routers, r_index, true);
+
+            a_routers = groupRouters(neigh.routers, a_index);
+            a_receivers = groupReceivers(neigh.routers, a_routers, a_index, false);
+            a_positions = groupReceivers(neigh.routers, a_routers, a_index, true);
+
+            Exchange exchange = Constant.shared ? Exchange.of(router) : null;
+            if (exchange != null) {
+                r_inboxes = inboxes(exchange, r_routers, r_receivers);
+                a_inboxes = inboxes(exchange, a_routers, a_receivers);
+            }
+
+            router.tell(new Register(self, size - col_infinity, size - row_infinity), self());
         }
 
         /* node are ready to start */
         dispatcher.tell(new Ready(), self());
     }
 
+    /**
+     * Start the iterations.
+     * In asynchronous mode the values received so far
+     * may already be enough to send the availabilities.
+     * @param msg received, with the first iteration
+     */
+    private void start(Start msg){
+        running = true;
+        iteration = msg.iteration;
+        sendResponsibility();
+        if (async) {
+            r_required = 1 - Constant.staleness;
+            r_lagging = lagging(r_count, r_required);
+            checkResponsibility();
+        }
+    }
+
+    /**
+     * @param count values received from each slot
+     * @param required values each slot must have received
+     * @return number of slots below required
+     */
+    private static int lagging(int[] count, long required){
+        int ret = 0;
+        for (int c : count) if (c < required) ret++;
+        return ret;
+    }
+
+    /**
+     * Allocate the received values, in the precision of the similarities
+     * @param rows length of a_row
+     * @param cols length of r_col
+     */
+    private void allocate(int rows, int cols){
+        if (float32) {
+            a_row32 = new float[rows];
+            r_col32 = new float[cols];
+        } else {
+            a_row = new double[rows];
+            r_col = new double[cols];
+        }
+    }
+
+    /**
+     * @param i slot
+     * @return s_row[i], in any precision
+     */
+    private double sRow(int i){
+        return float32 ? s_row32[i] : s_row[i];
+    }
+
+    /**
+     * @param i slot
+     * @return s_col[i], in any precision
+     */
+    private double sCol(int i){
+        return float32 ? s_col32[i] : s_col[i];
+    }
+
+    /**
+     * Local decision of the node
+     * @return r(k,k) + a(k,k), k is an exemplar if positive
+     */
+    private double decision(){
+        int r = rIndex(self), a = aIndex(self);
+        return float32 ? (double) r_col32[r] + a_row32[a] : r_col[r] + a_row[a];
+    }
+
+    /**
+     * r_col[i] = r_col[i] * lambda + value * (1 - lambda)
+     * @param i slot
+     * @param value received
+     */
+    private void dampResponsibility(int i, double value){
+        if (float32) r_col32[i] = (float) ((r_col32[i] * Constant.lambda) + (value * (1 - Constant.lambda)));
+        else r_col[i] = (r_col[i] * Constant.lambda) + (value * (1 - Constant.lambda));
+    }
+
+    /**
+     * a_row[i] = a_row[i] * lambda + value * (1 - lambda)
+     * @param i slot
+     * @param value received
+     */
+    private void dampAvailability(int i, double value){
+        if (float32) a_row32[i] = (float) ((a_row32[i] * Constant.lambda) + (value * (1 - Constant.lambda)));
+        else a_row[i] = (a_row[i] * Constant.lambda) + (value * (1 - Constant.lambda));
+    }
+
+    /**
+     * Warm start: copy the seeds in a_row and r_col.
+     * -INF slots stay -INF.
+     * Compacted vectors take the seeds of their slots.
+     */
+    private void seed(){
+        double[] a = r_position != null ? gather(a_seed, r_reference) : a_seed;
+        double[] r = r_position != null ? gather(r_seed, a_reference) : r_seed;
+        for (int i = 0; i < a.length; i++)
+            if (float32) a_row32[i] = (float) a[i];
+            else a_row[i] = a[i];
+        for (int i = 0; i < r.length; i++)
+            if (float32) { if (!Float.isInfinite(r_col32[i])) r_col32[i] = (float) r[i]; }
+            else if (!Util.isMinDouble(r_col[i])) r_col[i] = r[i];
+        a_seed = r_seed = null;
+    }
+
+    /**
+     * Send the state of the node for the snapshot.
+     * Compacted or sparse vectors are sent with their identifiers
+     * @param msg received
+     * @see Snapshot
+     */
+    private void dumpHandler(Dump msg){
+        boolean indexed = sparse;
+        double[] r = float32 ? Util.toDouble(r_col32) : r_col.clone();
+        double[] a = float32 ? Util.toDouble(a_row32) : a_row.clone();
+        sender().tell(new State(self, indexed ? a_reference : null, r, indexed ? r_reference : null, a), self());
+    }
+
+    /**
+     * Reply with the exemplar most similar to this node.
+     * Only the neighbors with finite similarity are scanned
+     * when the row is sparse or compacted
+     * @param msg received, with the exemplars in ascending order
+     * @see Labels
+     */
+    private void labelHandler(Label msg){
+        int best = Labels.none;
+        if (Arrays.binarySearch(msg.exemplars, self) >= 0) best = self;
+        else if (sparse) {
+            double max = Util.min_double;
+            for (int j = 0; j < r_reference.length; j++)
+                if (sRow(j) > max && Arrays.binarySearch(msg.exemplars, r_reference[j]) >= 0) {
+                    max = sRow(j);
+                    best = r_reference[j];
+                }
+        } else {
+            double max = Util.min_double;
+            for (int e : msg.exemplars)
+                if (sRow(e) > max) {
+                    max = sRow(e);
+                    best = e;
+                }
+        }
+        sender().tell(new Labeled(self, new int[]{best}), self());
+    }
+
+    /**
+     * Dense index compaction.
+     * s_row, a_row, s_col and r_col keep only the slots of r_reference and a_reference,
+     * as if the similarities were received sparse,
+     * so that the kernels scan contiguous vectors with no index.
+     * The positions of the senders are kept in a table
+     * instead of being searched, -1 for the nodes without a slot.
+     * Self must have a slot in both: s(k,k) is finite.
+     */
+    private void compact(){
+        if (float32) {
+            s_row32 = gather(s_row32, r_reference);
+            s_col32 = gather(s_col32, a_reference);
+        } else {
+            s_row = gather(s_row, r_reference);
+            s_col = gather(s_col, a_reference);
+        }
+        allocate(r_reference.length, a_reference.length);
+
+        r_position = positions(a_reference, size);
+        a_position = positions(r_reference, size);
+
+        sparse = true;
+    }
+
+    /**
+     * @param reference identifiers of the slots
+     * @param size number of nodes
+     * @return position of each node in reference, -1 if it has no slot
+     */
+    private static int[] positions(int[] reference, int size){
+        int[] ret = new int[size];
+        Arrays.fill(ret, -1);
+        for (int p = 0; p < reference.length; p++) ret[reference[p]] = p;
+        return ret;
+    }
+
+    /**
+     * Position in r_col of the responsibility sent by a node
+     * @param sender identifier of the node
+     * @return sender, or its position in a_reference if sparse
+     */
+    private int rIndex(int sender){
+        if (r_position != null) return r_position[sender];
+        return sparse ? Arrays.binarySearch(a_reference, sender) : sender;
+    }
+
+    /**
+     * Position in a_row of the availability sent by a node
+     * @param sender identifier of the node
+     * @return sender, or its position in r_reference if sparse
+     */
+    private int aIndex(int sender){
+        if (a_position != null) return a_position[sender];
+        return sparse ? Arrays.binarySearch(r_reference, sender) : sender;
+    }
+
+    /**
+     * Find the distinct routers of a set of nodes
+     * @param routers router of each node
+     * @param index identifiers of the nodes
+     * @return distinct routers, in order of first appearance
+     */
+    private static ActorRef[] groupRouters(ActorRef[] routers, int[] index){
+        ArrayList<ActorRef> distinct = new ArrayList<>();
+        HashMap<ActorRef,Integer> seen = new HashMap<>();
+        for (int i : index)
+            if (!seen.containsKey(routers[i])) {
+                seen.put(routers[i], distinct.size());
+                distinct.add(routers[i]);
+            }
+        return distinct.toArray(new ActorRef[distinct.size()]);
+    }
+
+    /**
+     * Find the inboxes of the nodes behind the router of this node
+     * @param exchange of the router of this node
+     * @param groups distinct routers
+     * @param receivers for each group, the nodes behind its router
+     * @return for each group, the inboxes of its nodes if the router is local, else null
+     */
+    private Exchange.Inbox[][] inboxes(Exchange exchange, ActorRef[] groups, int[][] receivers){
+        Exchange.Inbox[][] ret = new Exchange.Inbox[groups.length][];
+        for (int g = 0; g < groups.length; g++) {
+            if (!groups[g].equals(router)) continue;
+            ret[g] = new Exchange.Inbox[receivers[g].length];
+            for (int j = 0; j < receivers[g].length; j++) ret[g][j] = exchange.inbox(receivers[g][j]);
+        }
+        return ret;
+    }
+
+    /**
+     * Split a set of nodes by router
+     * @param routers router of each node
+     * @param groups distinct routers
+     * @param index identifiers of the nodes
+     * @param positions If true : returns the positions in index
+     *                  If false : returns the identifiers
+     * @return for each group, the nodes behind its router
+     */
+    private static int[][] groupReceivers(ActorRef[] routers, ActorRef[] groups, int[] index, boolean positions){
+        HashMap<ActorRef,Integer> group = new HashMap<>();
+        for (int g = 0; g < groups.length; g++) group.put(groups[g], g);
+
+        int[] count = new int[groups.length];
+        for (int i : index) count[group.get(routers[i])]++;
+
+        int[][] ret = new int[groups.length][];
+        for (int g = 0; g < groups.length; g++) ret[g] = new int[count[g]];
+
+        int[] fill = new int[groups.length];
+        for (int p = 0; p < index.length; p++) {
+            int g = group.get(routers[index[p]]);
+            ret[g][fill[g]++] = positions ? p : index[p];
+        }
+        return ret;
+    }
+
     /**
      * If more nodes are created than necessary,
      * the dispatcher sends a message to the node.
@@ -324,11 +994,78 @@ class Node extends AbstractActor{
      * @see Responsibility
      */
     private void responsibilityHandler(Responsibility responsibility){
-        r_col[responsibility.sender] = (r_col[responsibility.sender] * Constant.lambda) + (responsibility.value * (1 - Constant.lambda));
-        r_received++;
+        if (responsibility.job != job) return;
+        int i = rIndex(responsibility.sender);
+        dampResponsibility(i, responsibility.value);
+        receivedResponsibility(i);
+    }
+
+    /**
+     * Receive the message in single precision.
+     * Same as responsibilityHandler
+     *
+     * @param responsibility received
+     * @see FloatResponsibility
+     */
+    private void floatResponsibilityHandler(FloatResponsibility responsibility){
+        if (responsibility.job != job) return;
+        int i = rIndex(responsibility.sender);
+        dampResponsibility(i, responsibility.value);
+        receivedResponsibility(i);
+    }
+
+    /**
+     * Count a responsibility and possibly submit the availability
+     * @param i slot of the sender in r_col
+     */
+    private void receivedResponsibility(int i){
+        if (async) {
+            if (++r_count[i] == r_required) r_lagging--;
+        } else r_received++;
+        if (meter != null) meter.responsibility();
+
+        checkResponsibility();
+    }
+
+    /**
+     * Receive all the responsibilities of an iteration from the router.
+     * Each value is damped as in responsibilityHandler
+     *
+     * @param vector received
+     * @see ResponsibilityVector
+     */
+    private void responsibilityVectorHandler(ResponsibilityVector vector){
+        for (int j = 0; j < vector.senders.length; j++)
+            dampResponsibility(rIndex(vector.senders[j]), vector.values[j]);
+        r_received += vector.senders.length;
+        if (meter != null) meter.responsibility();
+
+        checkResponsibility();
+    }
+
+    /**
+     * If all the responsibilities are arrived
+     * submits the availability.
+     *
+     * In asynchronous mode, if every slot is within the staleness bound,
+     * submits the availability and checks
+     * whether the availabilities received so far end the iteration.
+     */
+    private void checkResponsibility(){
+        if (async) {
+            if (!running || availabilityPhase || r_lagging > 0) return;
+            availabilityPhase = true;
+            sendAvailability();
+
+            a_required = iteration + 1 - Constant.staleness;
+            a_lagging = lagging(a_count, a_required);
+            checkAvailability();
+            return;
+        }
 
         if (r_received == size - col_infinity) {
             r_received = 0;
+            if (checkpointing()) r_saved = r_col.clone();
 
             sendAvailability();
         }
@@ -351,21 +1088,300 @@ class Node extends AbstractActor{
      * @see Availability
      */
     private void availabilityHandler(Availability availability){
-        a_row[availability.sender] = (a_row[availability.sender] * Constant.lambda) + (availability.value * (1 - Constant.lambda));
-        a_received++;
+        if (availability.job != job) return;
+        int i = aIndex(availability.sender);
+        dampAvailability(i, availability.value);
+        receivedAvailability(i);
+    }
 
-        if (a_received == size - row_infinity) {
+    /**
+     * Receive the message in single precision.
+     * Same as availabilityHandler
+     *
+     * @param availability received
+     * @see FloatAvailability
+     */
+    private void floatAvailabilityHandler(FloatAvailability availability){
+        if (availability.job != job) return;
+        int i = aIndex(availability.sender);
+        dampAvailability(i, availability.value);
+        receivedAvailability(i);
+    }
+
+    /**
+     * Count an availability and possibly end the iteration
+     * @param i slot of the sender in a_row
+     */
+    private void receivedAvailability(int i){
+        if (async) {
+            if (++a_count[i] == a_required) a_lagging--;
+        } else a_received++;
+        if (meter != null) meter.availability();
+
+        checkAvailability();
+    }
+
+    /**
+     * Receive all the availabilities of an iteration from the router.
+     * Each value is damped as in availabilityHandler
+     *
+     * @param vector received
+     * @see AvailabilityVector
+     */
+    private void availabilityVectorHandler(AvailabilityVector vector){
+        for (int j = 0; j < vector.senders.length; j++)
+            dampAvailability(aIndex(vector.senders[j]), vector.values[j]);
+        a_received += vector.senders.length;
+        if (meter != null) meter.availability();
+
+        checkAvailability();
+    }
+
+    /**
+     * If all the availabilities are arrived
+     * ends the iteration and submits the responsibility.
+     *
+     * In asynchronous mode, the iteration ends
+     * once every slot is within the staleness bound.
+     */
+    private void checkAvailability(){
+        if (async) {
+            if (!availabilityPhase || a_lagging > 0) return;
+            availabilityPhase = false;
+        } else if (a_received == size - row_infinity)
             a_received = 0;
+        else return;
+
+        /* End of an iteration. Check whether or not to send an update. */
+        if (hierarchical)
+            report();
+        else if (this.iteration % (Constant.sendEach) == (Constant.sendEach - 1))
+            aggregator.tell(new Value(decision(), self, iteration), self());
+        if (meter != null) {
+            if (flow != null) meter.waited(flow.resetWaited());
+            aggregator.tell(meter.iteration(self, iteration), self());
+        }
+
+        //if (self == 0) System.out.println("Iteration " + iteration + " completed!");
+        advance();
+    }
 
-            /* End of an iteration. Check whether or not to send an update. */
-            if (this.iteration % (Constant.sendEach) == (Constant.sendEach - 1))
-                aggregator.tell(new Value(r_col[self] + a_row[self], self, iteration), self());
+    /**
+     * Start the next iteration.
+     * If an insertion is in progress, the node holds
+     * until the membership of the next iteration is known.
+     * Then it applies it and waits for the new nodes
+     * to start that iteration together.
+     */
+    private void advance(){
+        if (pending != null && iteration + 1 == pending.epoch) {
+            grow(pending);
+            pending = null;
+            holdAt = Long.MAX_VALUE;
+            dispatcher.tell(new Ready(), self());
+            return;
+        } else if (iteration + 1 >= holdAt) {
+            waiting = true;
+            return;
+        }
+
+        if (r_saved != null) checkpoint();
+
+        sendResponsibility();
+
+        this.iteration++;
+
+        if (async) {
+            r_required = iteration + 1 - Constant.staleness;
+            r_lagging = lagging(r_count, r_required);
+            checkResponsibility();
+        }
+    }
+
+    /**
+     * An insertion is starting: hold after this iteration
+     * and report it to the dispatcher
+     * @param msg received
+     */
+    private void holdHandler(Hold msg){
+        holdAt = iteration + 1;
+        sender().tell(new Held(self, iteration), self());
+    }
+
+    /**
+     * The membership of the insertion is known:
+     * run up to its epoch, then apply it
+     * @param membership received
+     */
+    private void membershipHandler(Membership membership){
+        pending = membership;
+        holdAt = membership.epoch;
+        if (waiting) {
+            waiting = false;
+            advance();
+        }
+    }
+
+    /**
+     * Grow the state of the node with the new points.
+     * New neighbors with finite similarity are appended to the references,
+     * and their values start at zero.
+     * Dense vectors are extended to the new size,
+     * compacted and sparse vectors by the new finite slots only.
+     * @param m membership
+     */
+    private void grow(Membership m){
+        int old = size, count = m.size - old;
+        int[] rows = finite(m.row, old), cols = finite(m.col, old);
+        row_infinity += count - rows.length;
+        col_infinity += count - cols.length;
+
+        if (sparse) {
+            s_row = append(s_row, m.row, rows, old);
+            s_col = append(s_col, m.col, cols, old);
+            a_row = Arrays.copyOf(a_row, a_row.length + rows.length);
+            r_col = Arrays.copyOf(r_col, r_col.length + cols.length);
+        } else {
+            s_row = Arrays.copyOf(s_row, m.size);
+            s_col = Arrays.copyOf(s_col, m.size);
+            System.arraycopy(m.row, 0, s_row, old, count);
+            System.arraycopy(m.col, 0, s_col, old, count);
+            a_row = Arrays.copyOf(a_row, m.size);
+            r_col = Arrays.copyOf(r_col, m.size);
+            for (int j = 0; j < count; j++) if (Util.isMinDouble(m.col[j])) r_col[old + j] = Util.min_double;
+        }
 
-            //if (self == 0) System.out.println("Iteration " + iteration + " completed!");
-            sendResponsibility();
+        if (r_reference != null) {
+            int r = r_reference.length, a = a_reference.length;
+            r_reference = Arrays.copyOf(r_reference, r + rows.length);
+            a_reference = Arrays.copyOf(a_reference, a + cols.length);
+            r_not_infinite_neighbors = Arrays.copyOf(r_not_infinite_neighbors, r + rows.length);
+            a_not_infinite_neighbors = Arrays.copyOf(a_not_infinite_neighbors, a + cols.length);
+            for (int j = 0; j < rows.length; j++) {
+                r_reference[r + j] = rows[j];
+                r_not_infinite_neighbors[r + j] = m.array[rows[j]];
+            }
+            for (int k = 0; k < cols.length; k++) {
+                a_reference[a + k] = cols[k];
+                a_not_infinite_neighbors[a + k] = m.array[cols[k]];
+            }
+        }
+
+        if (r_position != null) {
+            r_position = positions(a_reference, m.size);
+            a_position = positions(r_reference, m.size);
+        }
+
+        if (neighbors != null) neighbors = m.array;
+        size = m.size;
+    }
+
+    /**
+     * @param values similarities with the new points
+     * @param old identifier of the first new point
+     * @return identifiers of the new points with finite similarity
+     */
+    private static int[] finite(double[] values, int old){
+        return IntStream.range(0, values.length).filter(j -> !Util.isMinDouble(values[j])).map(j -> old + j).toArray();
+    }
+
+    /**
+     * @param vector compact vector
+     * @param values similarities with the new points
+     * @param ids identifiers of the new points with finite similarity
+     * @param old identifier of the first new point
+     * @return vector followed by the finite values
+     */
+    private static double[] append(double[] vector, double[] values, int[] ids, int old){
+        double[] ret = Arrays.copyOf(vector, vector.length + ids.length);
+        for (int j = 0; j < ids.length; j++) ret[vector.length + j] = values[ids[j] - old];
+        return ret;
+    }
+
+    /**
+     * @return true if the current iteration ends with a checkpoint.
+     * Only the lock-step double precision node writes checkpoints
+     */
+    private boolean checkpointing(){
+        return !float32 && !async && router == null && Checkpoint.due(iteration);
+    }
 
-            this.iteration++;
+    /**
+     * Write the checkpoint of the iteration just ended
+     * and report it to the dispatcher
+     * @see Checkpoint
+     */
+    private void checkpoint(){
+        try {
+            Checkpoint.write(Checkpoint.file(self, iteration), iteration, r_saved, a_row);
+            dispatcher.tell(new Checkpointed(self, iteration), self());
+        } catch (java.io.IOException e) {
+            System.out.println("Checkpoint " + iteration + " of node " + self + " not written: " + e.getMessage());
         }
+        r_saved = null;
+    }
+
+    /**
+     * Roll back to the checkpoint of an iteration,
+     * after some nodes failed and were replaced.
+     * Values of the previous incarnation still in flight are discarded.
+     * At iteration -1 the node starts over.
+     * If the checkpoint is missing the dispatcher is told,
+     * and it rolls every node back to the start.
+     * Then wait for the dispatcher to start the next iteration
+     * @param msg received
+     * @see Checkpoint
+     */
+    private void restoreHandler(Restore msg){
+        job = msg.generation;
+        running = false;
+        r_received = a_received = 0;
+        r_saved = null;
+
+        if (neighbors != null) neighbors = msg.array;
+        if (r_reference != null) {
+            for (int j = 0; j < r_reference.length; j++) r_not_infinite_neighbors[j] = msg.array[r_reference[j]];
+            for (int k = 0; k < a_reference.length; k++) a_not_infinite_neighbors[k] = msg.array[a_reference[k]];
+        }
+
+        Checkpoint checkpoint = null;
+        try {
+            if (msg.iteration >= 0) checkpoint = Checkpoint.read(Checkpoint.file(self, msg.iteration));
+        } catch (java.io.IOException e) {
+            System.out.println("Checkpoint " + msg.iteration + " of node " + self + " not read: " + e.getMessage());
+        }
+
+        if (checkpoint != null && checkpoint.iteration == msg.iteration
+                && checkpoint.r_col.length == r_col.length && checkpoint.a_row.length == a_row.length) {
+            r_col = checkpoint.r_col;
+            a_row = checkpoint.a_row;
+        } else if (msg.iteration >= 0) {
+            dispatcher.tell(new CheckpointMissing(self, msg.iteration), self());
+            return;
+        } else {
+            Arrays.fill(a_row, 0);
+            for (int i = 0; i < r_col.length; i++)
+                r_col[i] = optimize && !sparse && Util.isMinDouble(s_col[i]) ? Util.min_double : 0;
+        }
+
+        dispatcher.tell(new Ready(), self());
+    }
+
+    /**
+     * Hierarchical convergence:
+     * report the local decision only when it flips,
+     * and the progress every Constant.progressEach iterations.
+     * Here the aggregator is the sub aggregator of the host.
+     * @see SubAggregator
+     */
+    private void report(){
+        boolean now = decision() > 0;
+        if (now != exemplar) {
+            exemplar = now;
+            aggregator.tell(new Flip(self, iteration, now), self());
+        }
+        if (this.iteration % (Constant.progressEach) == (Constant.progressEach - 1))
+            aggregator.tell(new Progress(self, iteration), self());
     }
 
     /**
@@ -388,6 +1404,13 @@ class Node extends AbstractActor{
      * except if k == j. In this case
      * the second maximum is subtracted.
      *
+     * If sparse, the same computation runs over
+     * the compact vectors s_row and a_row.
+     *
+     * In single precision the computation is always optimized
+     * and the values are sent as floats.
+     * Batches still carry doubles, holding the rounded values.
+     *
      * @see Responsibility
      */
     private void sendResponsibility(){
@@ -407,29 +1430,41 @@ class Node extends AbstractActor{
         }
         sendValue = new double[sendSize];
 
-        if(sendOptimize) {
-            double firstMax, secondMax;
-            int firstK = -1;
-            firstMax = secondMax = Util.min_double;
-
-            for (int i : sendIndex) {
-                double value = a_row[i] + s_row[i];
-                if (firstMax <= value) {
-                    secondMax = firstMax;
-                    firstMax = value;
-                    firstK = i;
-                } else if (secondMax <= value) secondMax = value;
-            }
-
-            for(int i = 0; i < sendSize; i++)
-                sendValue[i] = r(sendIndex[i],firstK,firstMax,secondMax);
-                //assert (sendValue[i] == r(sendIndex[i]));
-        } else
+        if(float32)
+            Kernels.responsibilities(s_row32, a_row32, sparse ? null : sendIndex, sendSize, sendValue);
+        else if(sparse)
+            /* same as below, over positions instead of identifiers */
+            Kernels.responsibilities(s_row, a_row, null, sendSize, sendValue);
+        else if(sendOptimize)
+            Kernels.responsibilities(s_row, a_row, sendIndex, sendSize, sendValue);
+        else
             for(int i = 0; i < sendSize; i++)
-                sendValue[i] = r(sendIndex[i]);
+                sendValue[i] = Kernels.r(s_row, a_row, size, sendIndex[i]);
+
+        if (router != null) {
+            for (int g = 0; g < r_routers.length; g++) {
+                if (r_inboxes != null && r_inboxes[g] != null) {
+                    for (int j = 0; j < r_positions[g].length; j++)
+                        r_inboxes[g][j].responsibility(self, sendValue[r_positions[g][j]]);
+                    continue;
+                }
+                int[] receivers = r_receivers[g];
+                double[] values = gather(sendValue, r_positions[g]);
+                for (int from = 0; from < receivers.length; from += chunk()) {
+                    int to = Math.min(receivers.length, from + chunk());
+                    Messages batch = to - from == receivers.length
+                            ? responsibilityBatch(receivers, values)
+                            : responsibilityBatch(Arrays.copyOfRange(receivers, from, to), Arrays.copyOfRange(values, from, to));
+                    if (meter != null) meter.sent(batch);
+                    send(r_routers[g], batch);
+                }
+            }
+            return;
+        }
 
+        if (meter != null && sendSize > 0) meter.sent(responsibility(sendValue[0]), sendSize);
         for (int i = 0; i < sendSize; i++)
-            sendVector[i].tell(new Responsibility(sendValue[i], self), self());
+            sendVector[i].tell(responsibility(sendValue[i]), self());
             //assert (sendValue[i] == r(r_reference[i]));
             //assert (sendVector[i].compareTo(r_not_infinite_neighbors[i]) == 0);
     }
@@ -450,6 +1485,11 @@ class Node extends AbstractActor{
      * The calculation of availability is obtained
      * by subtracting r_col[j] from that sum
      * only if r_col[j] is positive.
+     *
+     * If sparse, the same computation runs over
+     * the compact vector r_col.
+     *
+     * In single precision, as in sendResponsibility.
      */
     private void sendAvailability(){
         ActorRef[] sendVector;
@@ -468,135 +1508,119 @@ class Node extends AbstractActor{
         }
         sendValue = new double[sendSize];
 
-        if(sendOptimize){
-            double sum = r_col[self];
-            for(int q : sendIndex)
-                if(q != self && r_col[q] > 0.0)
-                    sum += r_col[q];
-
-            for(int i = 0; i < sendSize; i++){
-                if(sendIndex[i] != self) {
-                    sendValue[i] = a(sendIndex[i], sum);
-                    //assert ((a(sendIndex[i],sum) - a(sendIndex[i])) < 10e-6);
-                    //assert (a(sendIndex[i]) == a(a_reference[i]));
-                } else
-                    sendValue[i] = a(sum);
-                    //assert ((a(sum) - a()) < 10e-6);
-            }
-        } else
+        if(float32)
+            Kernels.availabilities(r_col32, sparse ? null : sendIndex, sendSize, rIndex(self), sendValue);
+        else if(sparse)
+            /* same as below, over positions instead of identifiers */
+            Kernels.availabilities(r_col, null, sendSize, rIndex(self), sendValue);
+        else if(sendOptimize)
+            Kernels.availabilities(r_col, sendIndex, sendSize, self, sendValue);
+        else
             for(int i = 0; i < sendSize; i++)
-                if (sendIndex[i] != self) { sendValue[i] = a(sendIndex[i]); }
-                    else sendValue[i] = a();
+                if (sendIndex[i] != self) { sendValue[i] = Kernels.a(r_col, size, self, sendIndex[i]); }
+                    else sendValue[i] = Kernels.a(r_col, size, self);
+
+        if (router != null) {
+            for (int g = 0; g < a_routers.length; g++) {
+                if (a_inboxes != null && a_inboxes[g] != null) {
+                    for (int j = 0; j < a_positions[g].length; j++)
+                        a_inboxes[g][j].availability(self, sendValue[a_positions[g][j]]);
+                    continue;
+                }
+                int[] receivers = a_receivers[g];
+                double[] values = gather(sendValue, a_positions[g]);
+                for (int from = 0; from < receivers.length; from += chunk()) {
+                    int to = Math.min(receivers.length, from + chunk());
+                    Messages batch = to - from == receivers.length
+                            ? availabilityBatch(receivers, values)
+                            : availabilityBatch(Arrays.copyOfRange(receivers, from, to), Arrays.copyOfRange(values, from, to));
+                    if (meter != null) meter.sent(batch);
+                    send(a_routers[g], batch);
+                }
+            }
+            return;
+        }
 
+        if (meter != null && sendSize > 0) meter.sent(availability(sendValue[0]), sendSize);
         for (int i = 0; i < sendSize; i++)
-            sendVector[i].tell(new Availability(sendValue[i], self), self());
+            sendVector[i].tell(availability(sendValue[i]), self());
     }
 
     /**
-     * Compute r(i,k).
-     * Responsibility r(i,k) sent from node i candidate exemplar k
-     * reflects the accumulated evidence for how well-suited
-     * point k is to serve as exemplar for point i
-     *
-     * r(i,k) = s(i,k) - max, k' s.t. k' != k, {a(i,k')+s(i,k')}
-     * @param k index of node which send r(i,k)
-     * @return r(i,k)
+     * @param value r(i,k)
+     * @return message in the precision of the node
      */
-    private double r(int k){
-        double max = Util.min_double;
-        /* foreach except k */
-        /* pre condition : max = -INF */
-        for (int i = 0; i < k; i++)
-            max = (max > (a_row[i] + s_row[i])) ? max : (a_row[i] + s_row[i]);//Math.max(max, a_row[i] + s_row[i]);
-        for (int i = k + 1; i < size; i++)
-            max = (max > (a_row[i] + s_row[i])) ? max : (a_row[i] + s_row[i]);//Math.max(max, a_row[i] + s_row[i]);
-        /* post condition : max = maximum, k' != k, 0 <= k' <= size,
-        { a(i,k') + s(i,k') } */
-
-        return s_row[k] - max;
+    private Messages responsibility(double value){
+        return float32 ? new FloatResponsibility((float) value, self, job) : new Responsibility(value, self, job);
     }
 
     /**
-     * Compute r(i,k) in an optimized way.
-     * @param k index of node which send r(i,k)
-     * @param firstK max of {a(i,j)+s(i,j)}
-     * @param firstMax index q such that firstK == a(i,q)+s(i,q)
-     * @param secondMax max of {a(i,j)+s(i,j), j!=firstMax }
-     * @return r(i,k)
+     * @param value a(i,k)
+     * @return message in the precision of the node
      */
-    private double r(int k, int firstK, double firstMax, double secondMax){
-        return (k == firstK ? s_row[k] - secondMax : s_row[k] - firstMax);
+    private Messages availability(double value){
+        return float32 ? new FloatAvailability((float) value, self, job) : new Availability(value, self, job);
     }
 
     /**
-     * Compute a(i,k).
-     * Availability a(i,k), sent from candidate exemplar point k
-     * to point i, reflects the accumulated evidence for
-     * how appropriate it would be for point i to choose
-     * point k as its exemplars
-     *
-     * a(i,k) = min{0, r(k,k)+ Σ, i' s.t. i' != i &amp;&amp; i' != k, (max{0,r(i',k)})}
-     *
-     * @param i index of node which send a(i,k)
-     * @return a(i,k)
+     * @param receivers of the batch
+     * @param values r(i,k) for each receiver
+     * @return batch in the precision of the node
      */
-    private double a(int i){
-        double ret = r_col[self];
-
-        /* pre condition : ret = r(k,k) */
-        for(int q = 0; q < size; q++)
-            if(q != i && q != self && r_col[q] > 0.0)
-                ret += r_col[q];
-        /* post condition : ret = r(k,k) + Σ r(q,k) ,
-         * s.t. q != i && q != self && r[q][i]) > 0.0
-         */
-
-        /* return min { 0 , ret } */
-        return 0 < ret ? 0 : ret;
+    private Messages responsibilityBatch(int[] receivers, double[] values){
+        return float32 ? new FloatResponsibilityBatch(self, receivers, Util.toFloat(values))
+                : new ResponsibilityBatch(self, receivers, values);
     }
 
     /**
-     * Compute r(i,k) in an optimized way
-     * @param i index of the node which send a(i,k)
-     * @param sum r(k,k) + Σ max{0,r(i,q)} s.t. q != self
-     * @return a(i,k)
+     * @param receivers of the batch
+     * @param values a(i,k) for each receiver
+     * @return batch in the precision of the node
      */
-    private double a(int i, double sum){
-        /* We added too much.
-         * To get the correct result
-         * you have to subtract the possible member too.
-         */
-        if(r_col[i] > 0.0) sum -= r_col[i];
+    private Messages availabilityBatch(int[] receivers, double[] values){
+        return float32 ? new FloatAvailabilityBatch(self, receivers, Util.toFloat(values))
+                : new AvailabilityBatch(self, receivers, values);
+    }
 
-        /* return min { 0 , ret } */
-        return 0 < sum ? 0 : sum;
+    /**
+     * @return maximum number of values in a batch
+     */
+    private int chunk(){
+        return flow != null ? Constant.creditChunk : Integer.MAX_VALUE;
     }
 
     /**
-     * Self availability is updated differently.
-     * This message reflects accumulated evidence that point k
-     * is an exemplar, based on the positive responsibilities
-     * sent to candidate exemplar k from other points
-     *
-     * @return a(k,k)
+     * Send a batch to a router, under flow control if enabled
+     * @param router receiver
+     * @param batch to send
+     * @see Flow
      */
-    private double a(){
-        double ret = 0.0;
-        for(int q = 0; q < size; q++)
-            if(q != self && r_col[q] > 0.0)
-                ret += r_col[q];
+    private void send(ActorRef router, Messages batch){
+        if (flow != null) flow.send(router, batch);
+        else router.tell(batch, self());
+    }
 
+    /**
+     * Collect the values of a batch
+     * @param values computed for the whole send vector
+     * @param positions of the batch in the send vector
+     * @return values[positions[j]] for each j
+     */
+    private static double[] gather(double[] values, int[] positions){
+        double[] ret = new double[positions.length];
+        for (int j = 0; j < positions.length; j++) ret[j] = values[positions[j]];
         return ret;
     }
 
     /**
-     * Compute r(k,k) in an optimized way
-     * We don't need r(k,K) in "sum"
-     *
-     * @param sum r(k,k) + Σ max{0,r(i,q)} s.t. q != self
-     * @return r(k,k)
+     * Single precision version of gather
+     * @param values vector
+     * @param positions to collect
+     * @return values[positions[j]] for each j
      */
-    private double a(double sum){
-        return sum - r_col[self];
+    private static float[] gather(float[] values, int[] positions){
+        float[] ret = new float[positions.length];
+        for (int j = 0; j < positions.length; j++) ret[j] = values[positions[j]];
+        return ret;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,201 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Class for planning the host of each node.
+ *
+ * Nodes exchange values only along the pairs with finite similarity,
+ * so placing strongly connected points on the same host
+ * keeps most of the messages local.
+ *
+ * Points are visited in breadth first order over the similarity graph
+ * and each one is assigned greedily to the host holding most of its
+ * already placed neighbors, discounted by how full the host is
+ * (linear deterministic greedy partitioning).
+ * A host never takes more than its share of the points,
+ * proportional to its capacity, plus a small slack.
+ * Refinement passes then move points whose neighbors are mostly elsewhere
+ * to a host with room left, until no point moves.
+ *
+ * The node of each point is deployed on the host of the point
+ * and greets the dispatcher with it, so that it is initialized
+ * with that point whatever the order in which the nodes start.
+ *
+ * The adjacency is built from the pairs stored by a sparse graph,
+ * so only sparse graphs are planned: a dense one would take
+ * a scan of the whole matrix and adjacency of its size.
+ *
+ * @author Simone Schirinzi
+ */
+class Placement {
+    /**
+     * Points a host may take beyond its share, as a fraction of it
+     */
+    private static final double slack = 0.05;
+
+    /**
+     * Maximum number of refinement passes
+     */
+    private static final int passes = 8;
+
+    /**
+     * Host of each point
+     */
+    final int[] host;
+
+    /**
+     * Pairs with finite similarity, in either direction,
+     * crossing hosts with this plan and with round robin
+     */
+    final long cut, roundRobinCut;
+
+    /**
+     * Number of pairs with finite similarity, in either direction
+     */
+    final long edges;
+
+    private Placement(int[] host, long cut, long roundRobinCut, long edges){
+        this.host = host;
+        this.cut = cut;
+        this.roundRobinCut = roundRobinCut;
+        this.edges = edges;
+    }
+
+    /**
+     * @param data loaded graph
+     * @return true if the graph can be planned: sparse in memory or in a CSR file
+     */
+    static boolean plannable(Submit data){
+        return data.sparse != null || (data.mapped != null && data.mapped.isSparse());
+    }
+
+    /**
+     * Plan the placement of the nodes of a sparse graph
+     * @param data loaded graph, plannable
+     * @param capacity relative capacity of each host
+     * @return placement
+     */
+    static Placement plan(Submit data, double[] capacity){
+        int size = data.size, hosts = capacity.length;
+        int[][] adjacency = new int[size][];
+        for (int i = 0; i < size; i++) adjacency[i] = neighbors(data, i);
+
+        /* share of the points of each host */
+        double total = Arrays.stream(capacity).sum();
+        int[] limit = new int[hosts];
+        for (int h = 0; h < hosts; h++) limit[h] = (int) Math.ceil(size * capacity[h] / total * (1 + slack));
+
+        int[] host = new int[size];
+        int[] load = new int[hosts];
+        int[] links = new int[hosts];
+        Arrays.fill(host, -1);
+
+        for (int i : order(adjacency)) {
+            Arrays.fill(links, 0);
+            for (int j : adjacency[i]) if (host[j] >= 0) links[host[j]]++;
+            host[i] = best(links, load, limit);
+            load[host[i]]++;
+        }
+
+        /* refinement: move a point where most of its neighbors are, if there is room */
+        boolean moved = true;
+        for (int pass = 0; pass < passes && moved; pass++) {
+            moved = false;
+            for (int i = 0; i < size; i++) {
+                Arrays.fill(links, 0);
+                for (int j : adjacency[i]) links[host[j]]++;
+                int from = host[i], to = from;
+                for (int h = 0; h < hosts; h++)
+                    if (load[h] < limit[h] && links[h] > links[to]) to = h;
+                if (to != from) {
+                    load[from]--;
+                    load[to]++;
+                    host[i] = to;
+                    moved = true;
+                }
+            }
+        }
+
+        long cut = 0, roundRobinCut = 0, edges = 0;
+        for (int i = 0; i < size; i++)
+            for (int j : adjacency[i]) {
+                edges++;
+                if (host[i] != host[j]) cut++;
+                if (i % hosts != j % hosts) roundRobinCut++;
+            }
+        return new Placement(host, cut, roundRobinCut, edges);
+    }
+
+    /**
+     * Host with room left maximizing links * (1 - load / limit).
+     * Ties go to the least loaded host
+     * @param links neighbors of the point on each host
+     * @param load points on each host
+     * @param limit maximum points on each host
+     * @return host
+     */
+    private static int best(int[] links, int[] load, int[] limit){
+        int best = -1;
+        double max = -1;
+        for (int h = 0; h < links.length; h++) {
+            if (load[h] >= limit[h]) continue;
+            double fill = (double) load[h] / limit[h];
+            double score = links[h] * (1 - fill);
+            if (best < 0 || score > max || (score == max && fill < (double) load[best] / limit[best])) {
+                best = h;
+                max = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Breadth first order of the points, one component after the other
+     * @param adjacency neighbors of each point
+     * @return points in visit order
+     */
+    private static int[] order(int[][] adjacency){
+        int[] order = new int[adjacency.length];
+        boolean[] seen = new boolean[adjacency.length];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        int p = 0;
+        for (int s = 0; s < adjacency.length; s++) {
+            if (seen[s]) continue;
+            seen[s] = true;
+            queue.add(s);
+            while (!queue.isEmpty()) {
+                int i = queue.poll();
+                order[p++] = i;
+                for (int j : adjacency[i])
+                    if (!seen[j]) {
+                        seen[j] = true;
+                        queue.add(j);
+                    }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Points exchanging values with a point:
+     * j once for s(i,j) and once for s(j,i) when finite, i excluded
+     * @param data loaded graph
+     * @param i point
+     * @return neighbors, with repetitions
+     */
+    private static int[] neighbors(Submit data, int i){
+        int[] row, col;
+        if (data.sparse != null) {
+            row = data.sparse.rowIndex(i);
+            col = data.sparse.colIndex(i);
+        } else {
+            row = data.mapped.rowIndex(i);
+            col = data.mapped.colIndex(i);
+        }
+        int[] ret = new int[row.length + col.length];
+        int p = 0;
+        for (int j : row) if (j != i) ret[p++] = j;
+        for (int j : col) if (j != i) ret[p++] = j;
+        return Arrays.copyOf(ret, p);
+    }
+}
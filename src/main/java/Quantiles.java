@@ -0,0 +1,234 @@
+import java.util.Arrays;
+
+/**
+ * Class for quantiles of the loaded similarities,
+ * used to choose the preferences.
+ *
+ * The exact quantile is found by quickselect on a primitive copy of the values.
+ * The approximate one is read from a Sketch,
+ * which holds a bounded number of centroids whatever the input size.
+ * Loaders feed it while they parse: see Triples.
+ *
+ * Quantiles between two ranks are linearly interpolated,
+ * so that q = 0.5 on an even number of values
+ * is the mean of the two central ones.
+ *
+ * @author Simone Schirinzi
+ */
+class Quantiles {
+    /**
+     * Exact quantile
+     * @param input values, not modified
+     * @param count number of values
+     * @param q 0 for the minimum, 0.5 for the median, 1 for the maximum
+     * @return q-quantile of input[0, count)
+     */
+    static double quantile(double[] input, int count, double q){
+        if (count == 0) return Util.min_double;
+        double[] values = Arrays.copyOf(input, count);
+
+        double rank = q * (count - 1);
+        int low = (int) Math.floor(rank);
+        double lowValue = select(values, low);
+        if (rank == low) return lowValue;
+
+        /* after select the greater values are all in (low, count) */
+        double highValue = values[low + 1];
+        for (int p = low + 2; p < count; p++) if (values[p] < highValue) highValue = values[p];
+        return lowValue + (highValue - lowValue) * (rank - low);
+    }
+
+    /**
+     * Approximate quantile, in a single pass over the values
+     * @param input values, not modified
+     * @param count number of values
+     * @param q 0 for the minimum, 0.5 for the median, 1 for the maximum
+     * @return approximate q-quantile of input[0, count)
+     * @see Sketch
+     */
+    static double approximate(double[] input, int count, double q){
+        Sketch sketch = new Sketch();
+        for (int p = 0; p < count; p++) sketch.add(input[p]);
+        return sketch.quantile(q);
+    }
+
+    /**
+     * Hoare quickselect with median of three pivot.
+     * On return values[k] holds the k-th smallest value,
+     * values before k are not greater and values after k are not smaller.
+     * @param values to partition in place
+     * @param k rank to find, 0-based
+     * @return k-th smallest value
+     */
+    private static double select(double[] values, int k){
+        int left = 0, right = values.length - 1;
+        while (right > left) {
+            int middle = (left + right) >>> 1;
+            if (values[middle] < values[left]) swap(values, middle, left);
+            if (values[right] < values[left]) swap(values, right, left);
+            if (values[right] < values[middle]) swap(values, right, middle);
+            double pivot = values[middle];
+
+            int i = left, j = right;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) swap(values, i++, j--);
+            }
+
+            if (k <= j) right = j;
+            else if (k >= i) left = i;
+            else break;
+        }
+        return values[k];
+    }
+
+    private static void swap(double[] values, int i, int j){
+        double t = values[i];
+        values[i] = values[j];
+        values[j] = t;
+    }
+
+    /**
+     * Streaming quantile sketch in the style of the merging t-digest.
+     *
+     * Values are buffered and periodically merged into sorted centroids.
+     * A centroid near quantile q may hold at most 4 * n * q * (1 - q) / compression values,
+     * so the tails, where preferences like the minimum are read, stay precise.
+     * Memory is bounded by the compression, not by the number of values.
+     */
+    static class Sketch {
+        /**
+         * Higher compression: more centroids and smaller error
+         */
+        private static final int compression = 200;
+
+        private double[] mean = new double[0];
+        private double[] weight = new double[0];
+        private int centroids;
+
+        private final double[] buffer = new double[compression * 5];
+        private int buffered;
+
+        private double total;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        /**
+         * Add a value. -INF values are ignored, as they are not similarities
+         * @param value to add
+         */
+        void add(double value){
+            if (Util.isMinDouble(value) || Double.isNaN(value)) return;
+            buffer[buffered++] = value;
+            if (value < min) min = value;
+            if (value > max) max = value;
+            if (buffered == buffer.length) merge();
+        }
+
+        /**
+         * Add all the values of another sketch, as centroids
+         * @param other sketch to add, not modified but merged
+         */
+        void add(Sketch other){
+            other.merge();
+            if (other.centroids == 0) return;
+            merge();
+            if (other.min < min) min = other.min;
+            if (other.max > max) max = other.max;
+            combine(other.mean, other.weight, other.centroids, other.total);
+        }
+
+        /**
+         * @param q 0 for the minimum, 0.5 for the median, 1 for the maximum
+         * @return approximate q-quantile of the added values
+         */
+        double quantile(double q){
+            merge();
+            if (centroids == 0) return Util.min_double;
+            if (q <= 0) return min;
+            if (q >= 1) return max;
+
+            /* centroid c covers the ranks around its center */
+            double rank = q * total;
+            double cumulative = 0;
+            for (int c = 0; c < centroids; c++) {
+                double center = cumulative + weight[c] / 2;
+                if (rank < center) {
+                    double previousCenter = c == 0 ? 0 : cumulative - weight[c - 1] / 2;
+                    double previousMean = c == 0 ? min : mean[c - 1];
+                    double t = (rank - previousCenter) / (center - previousCenter);
+                    return previousMean + (mean[c] - previousMean) * t;
+                }
+                cumulative += weight[c];
+            }
+            double lastCenter = total - weight[centroids - 1] / 2;
+            double t = (rank - lastCenter) / (total - lastCenter);
+            return mean[centroids - 1] + (max - mean[centroids - 1]) * t;
+        }
+
+        /**
+         * Merge the buffer into the centroids
+         */
+        private void merge(){
+            if (buffered == 0) return;
+            Arrays.sort(buffer, 0, buffered);
+            double[] ones = new double[buffered];
+            Arrays.fill(ones, 1);
+            int n = buffered;
+            buffered = 0;
+            combine(buffer, ones, n, n);
+        }
+
+        /**
+         * Merge sorted centroids into the centroids
+         * @param addMean means, ascending
+         * @param addWeight weights
+         * @param added number of centroids to add
+         * @param addTotal sum of their weights
+         */
+        private void combine(double[] addMean, double[] addWeight, int added, double addTotal){
+            int n = centroids + added;
+            double[] m = new double[n];
+            double[] w = new double[n];
+
+            /* merge two sorted lists */
+            int a = 0, b = 0;
+            for (int p = 0; p < n; p++) {
+                if (b == added || (a < centroids && mean[a] <= addMean[b])) {
+                    m[p] = mean[a];
+                    w[p] = weight[a++];
+                } else {
+                    m[p] = addMean[b];
+                    w[p] = addWeight[b++];
+                }
+            }
+            total += addTotal;
+
+            /* greedy compression under the size bound */
+            double[] newMean = new double[n];
+            double[] newWeight = new double[n];
+            int count = 0;
+            double cumulative = 0;
+            newMean[0] = m[0];
+            newWeight[0] = w[0];
+            for (int p = 1; p < n; p++) {
+                double proposed = newWeight[count] + w[p];
+                double q = (cumulative + proposed / 2) / total;
+                double bound = 4 * total * q * (1 - q) / compression;
+                if (proposed <= Math.max(1, bound)) {
+                    newMean[count] += (m[p] - newMean[count]) * w[p] / proposed;
+                    newWeight[count] = proposed;
+                } else {
+                    cumulative += newWeight[count];
+                    count++;
+                    newMean[count] = m[p];
+                    newWeight[count] = w[p];
+                }
+            }
+            centroids = count + 1;
+            mean = Arrays.copyOf(newMean, centroids);
+            weight = Arrays.copyOf(newWeight, centroids);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+
+/**
+ * Class for host-local message routing.
+ * One router is deployed on each host when batching is enabled.
+ *
+ * Nodes send one batch per destination host per iteration.
+ * The router collects the batches addressed to its local nodes
+ * and hands to each node a single vector per iteration,
+ * as soon as all the values that node expects are arrived.
+ * The inboxes live in the exchange of the router,
+ * where nodes of the same host may also write directly.
+ *
+ * @see Exchange
+ *
+ * @author Simone Schirinzi
+ */
+class Router extends AbstractActor {
+    /**
+     * Collected values of the local nodes
+     */
+    private final Exchange exchange;
+
+    /**
+     * Create a router with no local node known
+     */
+    public Router(){
+        this.exchange = new Exchange();
+    }
+
+    @Override public void preStart() {Exchange.register(self(), exchange);}
+
+    @Override public void postStop() {Exchange.unregister(self());}
+
+    /**
+     * Actor messages handler
+     * @see Register
+     * @see ResponsibilityBatch
+     * @see AvailabilityBatch
+     * @see FloatResponsibilityBatch
+     * @see FloatAvailabilityBatch
+     * @return receive handler
+     */
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Register.class, this::registerHandler)
+                .match(ResponsibilityBatch.class, this::responsibilityHandler)
+                .match(AvailabilityBatch.class, this::availabilityHandler)
+                .match(FloatResponsibilityBatch.class, this::floatResponsibilityHandler)
+                .match(FloatAvailabilityBatch.class, this::floatAvailabilityHandler)
+                .build();
+    }
+
+    /**
+     * A local node declares itself
+     * and the number of values it waits for each iteration.
+     *
+     * @param register received message
+     */
+    private void registerHandler(Register register){
+        exchange.inbox(register.selfID).register(sender(), register.r_expected, register.a_expected);
+    }
+
+    /**
+     * Fan out a responsibility batch into the inboxes of the receivers.
+     * Under flow control, give the credit back to the sender
+     * @param batch received
+     */
+    private void responsibilityHandler(ResponsibilityBatch batch){
+        for (int i = 0; i < batch.receivers.length; i++)
+            exchange.inbox(batch.receivers[i]).responsibility(batch.sender, batch.values[i]);
+        if (Constant.credits > 0) sender().tell(new Credit(), self());
+    }
+
+    /**
+     * Fan out an availability batch into the inboxes of the receivers.
+     * Under flow control, give the credit back to the sender
+     * @param batch received
+     */
+    private void availabilityHandler(AvailabilityBatch batch){
+        for (int i = 0; i < batch.receivers.length; i++)
+            exchange.inbox(batch.receivers[i]).availability(batch.sender, batch.values[i]);
+        if (Constant.credits > 0) sender().tell(new Credit(), self());
+    }
+
+    /**
+     * Single precision version of responsibilityHandler.
+     * Floats are exact as doubles
+     * @param batch received
+     */
+    private void floatResponsibilityHandler(FloatResponsibilityBatch batch){
+        for (int i = 0; i < batch.receivers.length; i++)
+            exchange.inbox(batch.receivers[i]).responsibility(batch.sender, batch.values[i]);
+        if (Constant.credits > 0) sender().tell(new Credit(), self());
+    }
+
+    /**
+     * Single precision version of availabilityHandler
+     * @param batch received
+     */
+    private void floatAvailabilityHandler(FloatAvailabilityBatch batch){
+        for (int i = 0; i < batch.receivers.length; i++)
+            exchange.inbox(batch.receivers[i]).availability(batch.sender, batch.values[i]);
+        if (Constant.credits > 0) sender().tell(new Credit(), self());
+    }
+}
@@ -0,0 +1,273 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Class for the compressed encoding of similarity vectors.
+ *
+ * A vector is coded as a bit stream, in 64 bit words:
+ * its length and form, then alternate runs of -INF and of finite values,
+ * each run introduced by its length.
+ * Finite values are XOR coded against the previous one (Gorilla):
+ * a single 0 bit if equal, else the bits that differ,
+ * within the window of the previous value if they fit in it.
+ * Close similarities share sign, exponent and the top of the mantissa,
+ * so most of them cost fewer than 64 bits.
+ * When quantized, values are rounded to single precision first:
+ * their 29 low mantissa bits are zero and never sent.
+ * A vector that would take more than its plain size,
+ * as full precision noise does, is written plain instead.
+ *
+ * Identifiers of sparse vectors are coded as ascending gaps.
+ * Lengths, runs and gaps are varints of 7 bit groups.
+ *
+ * @author Simone Schirinzi
+ * @see HotSerializer
+ */
+class RowCodec {
+    private RowCodec(){}
+
+    /**
+     * @param n length of a vector
+     * @return upper bound of its coded size in bytes
+     */
+    static int bound(int n){
+        /* each value: 2 control + 5 + 6 + 64 bits, plus one varint of up to 5 bytes per run */
+        return 16 + 20 * n;
+    }
+
+    /**
+     * Write a vector, null included
+     * @param buf output
+     * @param values vector, may be null
+     * @param quantize if true, finite values are rounded to single precision
+     */
+    static void write(ByteBuffer buf, double[] values, boolean quantize){
+        Writer out = new Writer(buf);
+        if (values == null) {
+            out.varint(0);
+            out.flush();
+            return;
+        }
+
+        int start = buf.position();
+        out.varint((values.length + 1) << 1);
+        code(out, values, quantize);
+        out.flush();
+        if (buf.position() - start <= 8 + 8L * values.length) return;
+
+        /* plain */
+        buf.position(start);
+        out.varint((values.length + 1) << 1 | 1);
+        for (double value : values)
+            out.bits(Double.doubleToRawLongBits(quantize ? (double) (float) value : value), 64);
+        out.flush();
+    }
+
+    /**
+     * Runs and XOR coded values of a vector
+     * @param out bit stream
+     * @param values vector
+     * @param quantize if true, finite values are rounded to single precision
+     */
+    private static void code(Writer out, double[] values, boolean quantize){
+        long previous = 0;
+        int leading = -1, trailing = 0;
+        int i = 0;
+        while (i < values.length) {
+            int start = i;
+            while (i < values.length && values[i] == Double.NEGATIVE_INFINITY) i++;
+            out.varint(i - start);
+            start = i;
+            while (i < values.length && values[i] != Double.NEGATIVE_INFINITY) i++;
+            out.varint(i - start);
+
+            for (int j = start; j < i; j++) {
+                double value = quantize ? (double) (float) values[j] : values[j];
+                long bits = Double.doubleToRawLongBits(value);
+                long xor = bits ^ previous;
+                previous = bits;
+                if (xor == 0) {
+                    out.bits(0, 1);
+                    continue;
+                }
+                int lead = Math.min(31, Long.numberOfLeadingZeros(xor));
+                int trail = Long.numberOfTrailingZeros(xor);
+                if (leading >= 0 && lead >= leading && trail >= trailing) {
+                    out.bits(2, 2);
+                    out.bits(xor >>> trailing, 64 - leading - trailing);
+                } else {
+                    int meaningful = 64 - lead - trail;
+                    out.bits(3, 2);
+                    out.bits(lead, 5);
+                    out.bits(meaningful - 1, 6);
+                    out.bits(xor >>> trail, meaningful);
+                    leading = lead;
+                    trailing = trail;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a vector written by write
+     * @param buf input
+     * @return vector, may be null
+     */
+    static double[] read(ByteBuffer buf){
+        Reader in = new Reader(buf);
+        int header = in.varint();
+        if (header == 0) return null;
+        double[] values = new double[(header >>> 1) - 1];
+        int length = values.length;
+        if ((header & 1) != 0) {
+            for (int i = 0; i < length; i++) values[i] = Double.longBitsToDouble(in.bits(64));
+            return values;
+        }
+
+        long previous = 0;
+        int leading = 0, trailing = 0;
+        int i = 0;
+        while (i < length) {
+            int infinite = in.varint();
+            for (int end = i + infinite; i < end; i++) values[i] = Double.NEGATIVE_INFINITY;
+            int finite = in.varint();
+            for (int end = i + finite; i < end; i++) {
+                if (in.bits(1) != 0) {
+                    if (in.bits(1) != 0) {
+                        leading = (int) in.bits(5);
+                        int meaningful = (int) in.bits(6) + 1;
+                        trailing = 64 - leading - meaningful;
+                    }
+                    previous ^= in.bits(64 - leading - trailing) << trailing;
+                }
+                values[i] = Double.longBitsToDouble(previous);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Write ascending identifiers, null included
+     * @param buf output
+     * @param index identifiers, may be null
+     */
+    static void writeIndex(ByteBuffer buf, int[] index){
+        Writer out = new Writer(buf);
+        if (index == null) out.varint(0);
+        else {
+            out.varint(index.length + 1);
+            int previous = -1;
+            for (int j : index) {
+                out.varint(j - previous - 1);
+                previous = j;
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Read identifiers written by writeIndex
+     * @param buf input
+     * @return identifiers, may be null
+     */
+    static int[] readIndex(ByteBuffer buf){
+        Reader in = new Reader(buf);
+        int length = in.varint() - 1;
+        if (length < 0) return null;
+        int[] index = new int[length];
+        int previous = -1;
+        for (int p = 0; p < length; p++) {
+            previous += in.varint() + 1;
+            index[p] = previous;
+        }
+        return index;
+    }
+
+    /**
+     * Bits written from the most significant, in 64 bit words
+     */
+    private static class Writer {
+        private final ByteBuffer buf;
+        private long word;
+        private int used;
+
+        Writer(ByteBuffer buf){
+            this.buf = buf;
+        }
+
+        /**
+         * @param value whose n low bits are written
+         * @param n 1 to 64
+         */
+        void bits(long value, int n){
+            if (n < 64) value &= (1L << n) - 1;
+            int free = 64 - used;
+            if (n < free) {
+                word |= value << (free - n);
+                used += n;
+            } else {
+                word |= value >>> (n - free);
+                buf.putLong(word);
+                used = n - free;
+                word = used == 0 ? 0 : value << (64 - used);
+            }
+        }
+
+        void varint(int value){
+            while ((value & ~0x7F) != 0) {
+                bits((value & 0x7F) | 0x80, 8);
+                value >>>= 7;
+            }
+            bits(value, 8);
+        }
+
+        void flush(){
+            if (used > 0) buf.putLong(word);
+            word = 0;
+            used = 0;
+        }
+    }
+
+    /**
+     * Bits read in the order of Writer
+     */
+    private static class Reader {
+        private final ByteBuffer buf;
+        private long word;
+        private int left;
+
+        Reader(ByteBuffer buf){
+            this.buf = buf;
+        }
+
+        /**
+         * @param n 1 to 64
+         * @return the next n bits
+         */
+        long bits(int n){
+            if (n <= left) {
+                long ret = (word >>> (left - n)) & mask(n);
+                left -= n;
+                return ret;
+            }
+            long high = left == 0 ? 0 : word & mask(left);
+            int missing = n - left;
+            word = buf.getLong();
+            left = 64 - missing;
+            long low = word >>> left;
+            return missing == 64 ? low : (high << missing) | low;
+        }
+
+        int varint(){
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int group = (int) bits(8);
+                value |= (group & 0x7F) << shift;
+                if ((group & 0x80) == 0) return value;
+            }
+        }
+
+        private static long mask(int n){
+            return n == 64 ? -1L : (1L << n) - 1;
+        }
+    }
+}
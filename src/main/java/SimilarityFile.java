@@ -0,0 +1,526 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class for binary similarity files.
+ *
+ * A binary file is written once from the text formats
+ * and then memory mapped at each run,
+ * so that no parsing is needed and rows and columns
+ * are read as views of the mapped pages.
+ *
+ * Layout, big endian:
+ * header (64 bytes) : magic, version, format, size, entries, density, preference
+ * DENSE64 / DENSE32 : the matrix row-major, then the matrix column-major,
+ *                     so that both rows and columns are contiguous
+ * CSR               : row pointers (long[size+1]), column indexes (int[entries]), values (double[entries]),
+ *                     then column pointers, row indexes and values of the transposed matrix
+ *
+ * -INF pairs are written as -INF in the dense formats and not written at all in CSR.
+ *
+ * @author Simone Schirinzi
+ */
+class SimilarityFile implements Closeable {
+    /**
+     * "APSM"
+     */
+    private static final int magic = 0x4150534D;
+
+    private static final int version = 1;
+
+    private static final int header = 64;
+
+    /**
+     * Formats of the body
+     */
+    static final int DENSE64 = 0;
+    static final int DENSE32 = 1;
+    static final int CSR = 2;
+
+    /**
+     * Greatest mapped region: the rows of a region must not cross it
+     */
+    private static final long region = 1L << 30;
+
+    /**
+     * Files opened by the nodes of this JVM, by location
+     * @see #shared(String)
+     */
+    private static final java.util.concurrent.ConcurrentHashMap<String, SimilarityFile> opened
+            = new java.util.concurrent.ConcurrentHashMap<>();
+
+    private final FileChannel channel;
+
+    /**
+     * Format of the body
+     */
+    public final int format;
+
+    /**
+     * number of nodes
+     */
+    public final int size;
+
+    /**
+     * number of stored pairs
+     */
+    public final long entries;
+
+    /**
+     * entries / size^2
+     */
+    public final double density;
+
+    /**
+     * Preference used when the file was written, NaN if not uniform
+     */
+    public final double preference;
+
+    /**
+     * Dense formats : rows and columns sections.
+     * Each section is mapped in regions of whole rows
+     */
+    private Section rows;
+    private Section cols;
+
+    /**
+     * CSR format : pointers, indexes and values of rows and columns
+     */
+    private LongBuffer row_ptr;
+    private Section row_idx;
+    private Section row_val;
+    private LongBuffer col_ptr;
+    private Section col_idx;
+    private Section col_val;
+
+    private SimilarityFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+
+        ByteBuffer head = ByteBuffer.allocate(header);
+        channel.read(head, 0);
+        head.flip();
+        if (head.getInt() != magic) throw new IOException("Not a similarity file");
+        if (head.getInt() != version) throw new IOException("Unsupported similarity file version");
+        format = head.getInt();
+        size = head.getInt();
+        entries = head.getLong();
+        density = head.getDouble();
+        preference = head.getDouble();
+
+        long position = header;
+        if (format == DENSE64 || format == DENSE32) {
+            int width = format == DENSE64 ? 8 : 4;
+            rows = new Section(channel, position, size, (long) size * width);
+            position += (long) size * size * width;
+            cols = new Section(channel, position, size, (long) size * width);
+        } else if (format == CSR) {
+            row_ptr = map(channel, position, (long) (size + 1) * 8).asLongBuffer();
+            position += (long) (size + 1) * 8;
+            row_idx = new Section(channel, position, entries, 4);
+            position += entries * 4;
+            row_val = new Section(channel, position, entries, 8);
+            position += entries * 8;
+            col_ptr = map(channel, position, (long) (size + 1) * 8).asLongBuffer();
+            position += (long) (size + 1) * 8;
+            col_idx = new Section(channel, position, entries, 4);
+            position += entries * 4;
+            col_val = new Section(channel, position, entries, 8);
+        } else throw new IOException("Unknown similarity file format " + format);
+    }
+
+    /**
+     * Open and map a binary similarity file
+     * @param file location of the file
+     * @return mapped file
+     * @throws IOException if the file cannot be read or is not a similarity file
+     */
+    static SimilarityFile open(String file) throws IOException {
+        return new SimilarityFile(FileChannel.open(Paths.get(file), StandardOpenOption.READ));
+    }
+
+    /**
+     * Open and map a binary similarity file once per JVM:
+     * the nodes of a host share the mapping.
+     * It stays open as long as the JVM
+     * @param file location of the file
+     * @return mapped file
+     * @throws IOException if the file cannot be read or is not a similarity file
+     */
+    static SimilarityFile shared(String file) throws IOException {
+        SimilarityFile ret = opened.get(file);
+        if (ret != null) return ret;
+        synchronized (opened) {
+            ret = opened.get(file);
+            if (ret == null) opened.put(file, ret = open(file));
+            return ret;
+        }
+    }
+
+    /**
+     * Shared file, checked against the one of the dispatcher
+     * @param file location of the file
+     * @param size expected number of nodes
+     * @param entries expected number of stored pairs
+     * @return mapped file
+     * @throws IOException if the file cannot be read or differs from the expected one
+     */
+    static SimilarityFile shared(String file, int size, long entries) throws IOException {
+        SimilarityFile ret = shared(file);
+        if (ret.size != size || ret.entries != entries)
+            throw new IOException(file + " has " + ret.size + " nodes and " + ret.entries
+                    + " pairs instead of " + size + " and " + entries);
+        return ret;
+    }
+
+    /**
+     * Check whether a file is a binary similarity file
+     * @param file location of the file
+     * @return true if the file starts with the magic number
+     */
+    static boolean isBinary(String file){
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(4);
+            return channel.read(head, 0) == 4 && head.getInt(0) == magic;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if only the pairs different from -INF are stored
+     */
+    public boolean isSparse(){
+        return format == CSR;
+    }
+
+    /**
+     * Row of a dense file, as a view of the mapped pages
+     * @param i row
+     * @return s(i,*), DoubleBuffer or FloatBuffer depending on the format
+     */
+    public java.nio.Buffer rowView(int i){
+        return rows.view(i, format);
+    }
+
+    /**
+     * Column of a dense file, as a view of the mapped pages
+     * @param i column
+     * @return s(*,i), DoubleBuffer or FloatBuffer depending on the format
+     */
+    public java.nio.Buffer colView(int i){
+        return cols.view(i, format);
+    }
+
+    /**
+     * Dense row, -INF where the pair is not stored
+     * @param i row
+     * @return s(i,*)
+     */
+    public double[] denseRow(int i){
+        if (isSparse()) return dense(rowIndex(i), rowValue(i));
+        return read(rowView(i));
+    }
+
+    /**
+     * Dense column, -INF where the pair is not stored
+     * @param i column
+     * @return s(*,i)
+     */
+    public double[] denseCol(int i){
+        if (isSparse()) return dense(colIndex(i), colValue(i));
+        return read(colView(i));
+    }
+
+    /**
+     * Initialization of the node of a point:
+     * only the pairs different from -INF if the file is sparse
+     * @param i point
+     * @return s(i,*) and s(*,i)
+     */
+    public Initialize initialize(int i){
+        if (isSparse()) return new Initialize(rowValue(i), rowIndex(i), colValue(i), colIndex(i), i);
+        return new Initialize(denseRow(i), denseCol(i), i);
+    }
+
+    /**
+     * Columns j such that s(i,j) != -INF, in ascending order. CSR only
+     * @param i row
+     * @return column indexes
+     */
+    public int[] rowIndex(int i){
+        return row_idx.ints(row_ptr.get(i), row_ptr.get(i + 1));
+    }
+
+    /**
+     * Similarities s(i,j) != -INF, ordered as rowIndex(i). CSR only
+     * @param i row
+     * @return similarities
+     */
+    public double[] rowValue(int i){
+        return row_val.doubles(row_ptr.get(i), row_ptr.get(i + 1));
+    }
+
+    /**
+     * Rows j such that s(j,i) != -INF, in ascending order. CSR only
+     * @param i column
+     * @return row indexes
+     */
+    public int[] colIndex(int i){
+        return col_idx.ints(col_ptr.get(i), col_ptr.get(i + 1));
+    }
+
+    /**
+     * Similarities s(j,i) != -INF, ordered as colIndex(i). CSR only
+     * @param i column
+     * @return similarities
+     */
+    public double[] colValue(int i){
+        return col_val.doubles(col_ptr.get(i), col_ptr.get(i + 1));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Write a dense graph
+     * @param file location of the file
+     * @param graph similarity graph
+     * @param float32 If true : values are stored in single precision
+     * @throws IOException if the file cannot be written
+     */
+    static void write(String file, double[][] graph, boolean float32) throws IOException {
+        int size = graph.length;
+        long entries = 0;
+        for (double[] row : graph) for (double s : row) if (!Util.isMinDouble(s)) entries++;
+
+        try (Writer out = new Writer(file)) {
+            out.header(float32 ? DENSE32 : DENSE64, size, entries, uniformPreference(graph, size));
+            for (int i = 0; i < size; i++)
+                for (int j = 0; j < size; j++) out.value(graph[i][j], float32);
+            for (int j = 0; j < size; j++)
+                for (int i = 0; i < size; i++) out.value(graph[i][j], float32);
+        }
+    }
+
+    /**
+     * Write a sparse graph
+     * @param file location of the file
+     * @param graph sparse similarity graph
+     * @throws IOException if the file cannot be written
+     */
+    static void write(String file, SparseGraph graph) throws IOException {
+        int size = graph.size;
+        long entries = graph.entries();
+
+        double preference = Double.NaN;
+        for (int i = 0; i < size; i++) {
+            int[] index = graph.rowIndex(i);
+            int p = java.util.Arrays.binarySearch(index, i);
+            double s = p < 0 ? Util.min_double : graph.rowValue(i)[p];
+            if (i == 0) preference = s;
+            else if (Double.compare(preference, s) != 0) { preference = Double.NaN; break; }
+        }
+
+        try (Writer out = new Writer(file)) {
+            out.header(CSR, size, entries, preference);
+
+            long ptr = 0;
+            out.putLong(ptr);
+            for (int i = 0; i < size; i++) out.putLong(ptr += graph.rowIndex(i).length);
+            for (int i = 0; i < size; i++) for (int j : graph.rowIndex(i)) out.putInt(j);
+            for (int i = 0; i < size; i++) for (double s : graph.rowValue(i)) out.putDouble(s);
+
+            ptr = 0;
+            out.putLong(ptr);
+            for (int i = 0; i < size; i++) out.putLong(ptr += graph.colIndex(i).length);
+            for (int i = 0; i < size; i++) for (int j : graph.colIndex(i)) out.putInt(j);
+            for (int i = 0; i < size; i++) for (double s : graph.colValue(i)) out.putDouble(s);
+        }
+    }
+
+    /**
+     * Convert a text similarity file into a binary one.
+     * Triples use the median preference, as when they are loaded by Main.
+     * @param input location of the text file
+     * @param output location of the binary file
+     * @param format "dense64", "dense32" or "csr"
+     * @param csv If true : input is a matrix, one row per line, comma separated
+     *            If false : input is made of triples {i, j, s(i,j)}
+     * @throws IOException if a file cannot be read or written
+     */
+    static void convert(String input, String output, String format, boolean csv) throws IOException {
+        switch (format) {
+            case "dense64":
+            case "dense32":
+                double[][] graph = csv
+                        ? Util.buildGraph(input, 0, false, false, Constant.sigma)
+                        : Util.buildGraph(input, " ", null, true, Constant.sigma);
+                write(output, graph, format.equals("dense32"));
+                break;
+            case "csr":
+                if (csv) throw new IOException("csr is only available for triples");
+                write(output, Util.buildSparseGraph(input, " ", null, true, Constant.sigma));
+                break;
+            default:
+                throw new IOException("Unknown format " + format);
+        }
+    }
+
+    /**
+     * @param graph similarity graph
+     * @param size of graph
+     * @return s(i,i) if it is the same for all i, NaN otherwise
+     */
+    private static double uniformPreference(double[][] graph, int size){
+        for (int i = 1; i < size; i++)
+            if (Double.compare(graph[i][i], graph[0][0]) != 0) return Double.NaN;
+        return size > 0 ? graph[0][0] : Double.NaN;
+    }
+
+    /**
+     * Copy a view into a vector
+     * @param view DoubleBuffer or FloatBuffer
+     * @return values of the view
+     */
+    private static double[] read(java.nio.Buffer view){
+        double[] ret = new double[view.remaining()];
+        if (view instanceof DoubleBuffer) ((DoubleBuffer) view).get(ret);
+        else {
+            FloatBuffer floats = (FloatBuffer) view;
+            for (int i = 0; i < ret.length; i++) ret[i] = floats.get(i);
+        }
+        return ret;
+    }
+
+    /**
+     * Expand sparse pairs into a dense vector
+     * @param index of the pairs
+     * @param value of the pairs
+     * @return dense vector, -INF where the pair is not stored
+     */
+    private double[] dense(int[] index, double[] value){
+        double[] ret = new double[size];
+        java.util.Arrays.fill(ret, Util.min_double);
+        for (int p = 0; p < index.length; p++) ret[index[p]] = value[p];
+        return ret;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    }
+
+    /**
+     * A section of the file made of records of the same width,
+     * mapped in regions of whole records
+     */
+    private static class Section {
+        private final MappedByteBuffer[] regions;
+        private final long perRegion;
+        private final long width;
+
+        Section(FileChannel channel, long position, long records, long width) throws IOException {
+            this.width = width;
+            this.perRegion = Math.max(1, region / Math.max(1, width));
+            int count = (int) Math.max(1, (records + perRegion - 1) / perRegion);
+            regions = new MappedByteBuffer[count];
+            for (int r = 0; r < count; r++) {
+                long first = r * perRegion;
+                long length = Math.min(perRegion, records - first) * width;
+                regions[r] = map(channel, position + first * width, Math.max(0, length));
+            }
+        }
+
+        /**
+         * A record, as a view of the mapped pages
+         */
+        java.nio.Buffer view(long record, int format){
+            ByteBuffer buffer = regions[(int) (record / perRegion)].duplicate();
+            int offset = (int) ((record % perRegion) * width);
+            buffer.position(offset);
+            buffer.limit(offset + (int) width);
+            ByteBuffer slice = buffer.slice();
+            return format == DENSE32 ? slice.asFloatBuffer() : slice.asDoubleBuffer();
+        }
+
+        /**
+         * Records [from, to) read as ints. Records of 4 bytes only
+         */
+        int[] ints(long from, long to){
+            int[] ret = new int[(int) (to - from)];
+            for (long p = from; p < to; p++)
+                ret[(int) (p - from)] = regions[(int) (p / perRegion)].getInt((int) ((p % perRegion) * width));
+            return ret;
+        }
+
+        /**
+         * Records [from, to) read as doubles. Records of 8 bytes only
+         */
+        double[] doubles(long from, long to){
+            double[] ret = new double[(int) (to - from)];
+            for (long p = from; p < to; p++)
+                ret[(int) (p - from)] = regions[(int) (p / perRegion)].getDouble((int) ((p % perRegion) * width));
+            return ret;
+        }
+    }
+
+    /**
+     * Buffered sequential writer
+     */
+    private static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+        Writer(String file) throws IOException {
+            channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        void header(int format, int size, long entries, double preference) throws IOException {
+            putInt(magic);
+            putInt(version);
+            putInt(format);
+            putInt(size);
+            putLong(entries);
+            putDouble(size > 0 ? (double) entries / ((double) size * size) : 0);
+            putDouble(preference);
+            while (buffer.position() < header) buffer.put((byte) 0);
+        }
+
+        void value(double s, boolean float32) throws IOException {
+            if (float32) putFloat((float) s);
+            else putDouble(s);
+        }
+
+        void putInt(int v) throws IOException { room(4); buffer.putInt(v); }
+        void putLong(long v) throws IOException { room(8); buffer.putLong(v); }
+        void putFloat(float v) throws IOException { room(4); buffer.putFloat(v); }
+        void putDouble(double v) throws IOException { room(8); buffer.putDouble(v); }
+
+        private void room(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) flush();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Class for snapshots of the responsibilities and availabilities of a run,
+ * used to warm start a later run on a slightly changed graph.
+ *
+ * For each point k the snapshot keeps r(i,k) and a(k,i)
+ * for the points i it exchanged values with, by identifier.
+ * Points are matched by identifier between the two runs:
+ * new points, and new pairs of old points, start at zero.
+ *
+ * Layout, big endian:
+ * magic, version, size,
+ * then for each point: count, indexes and values of r(*,k),
+ * count, indexes and values of a(k,*).
+ * Indexes are ascending. -INF values are not written.
+ *
+ * @author Simone Schirinzi
+ */
+class Snapshot {
+    /**
+     * "APST"
+     */
+    private static final int magic = 0x41505354;
+
+    private static final int version = 1;
+
+    /**
+     * number of nodes of the run
+     */
+    public final int size;
+
+    /**
+     * r_index[k][p] = i, r_value[k][p] = r(i,k)
+     */
+    private final int[][] r_index;
+    private final double[][] r_value;
+
+    /**
+     * a_index[k][p] = i, a_value[k][p] = a(k,i)
+     */
+    private final int[][] a_index;
+    private final double[][] a_value;
+
+    private Snapshot(int size){
+        this.size = size;
+        this.r_index = new int[size][];
+        this.r_value = new double[size][];
+        this.a_index = new int[size][];
+        this.a_value = new double[size][];
+    }
+
+    /**
+     * Write the states of all the nodes
+     * @param file output file
+     * @param states one for each point, in any order
+     * @throws IOException on write error
+     */
+    static void write(String file, State[] states) throws IOException {
+        State[] byPoint = new State[states.length];
+        for (State state : states) byPoint[state.sender] = state;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20))) {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeInt(byPoint.length);
+            for (State state : byPoint) {
+                write(out, state.r_index, state.r_values);
+                write(out, state.a_index, state.a_values);
+            }
+        }
+    }
+
+    /**
+     * Write the finite values of a vector
+     * @param out stream
+     * @param index identifiers of the slots, null if the vector is dense
+     * @param values vector
+     * @throws IOException on write error
+     */
+    private static void write(DataOutputStream out, int[] index, double[] values) throws IOException {
+        int count = 0;
+        for (double value : values) if (!Util.isMinDouble(value)) count++;
+        out.writeInt(count);
+        for (int p = 0; p < values.length; p++)
+            if (!Util.isMinDouble(values[p])) out.writeInt(index == null ? p : index[p]);
+        for (double value : values)
+            if (!Util.isMinDouble(value)) out.writeDouble(value);
+    }
+
+    /**
+     * Read a snapshot
+     * @param file input file
+     * @return snapshot
+     * @throws IOException on read error or if the file is not a snapshot
+     */
+    static Snapshot read(String file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 20))) {
+            if (in.readInt() != magic) throw new IOException(file + " is not a snapshot");
+            if (in.readInt() != version) throw new IOException(file + " has an unknown version");
+
+            Snapshot snapshot = new Snapshot(in.readInt());
+            for (int k = 0; k < snapshot.size; k++) {
+                snapshot.r_index[k] = readIndex(in);
+                snapshot.r_value[k] = readValues(in, snapshot.r_index[k].length);
+                snapshot.a_index[k] = readIndex(in);
+                snapshot.a_value[k] = readValues(in, snapshot.a_index[k].length);
+            }
+            return snapshot;
+        }
+    }
+
+    private static int[] readIndex(DataInputStream in) throws IOException {
+        int[] ret = new int[in.readInt()];
+        for (int p = 0; p < ret.length; p++) ret[p] = in.readInt();
+        return ret;
+    }
+
+    private static double[] readValues(DataInputStream in, int count) throws IOException {
+        double[] ret = new double[count];
+        for (int p = 0; p < count; p++) ret[p] = in.readDouble();
+        return ret;
+    }
+
+    /**
+     * Seed of r_col of a point
+     * @param k point
+     * @param index identifiers of the slots of r_col, null for [0, size)
+     * @param size number of nodes of the new run
+     * @return r(i,k) of the snapshot for each slot, 0 where unknown.
+     *         Null if k is a new point
+     */
+    double[] responsibilities(int k, int[] index, int size){
+        return k < this.size ? seed(r_index[k], r_value[k], index, size) : null;
+    }
+
+    /**
+     * Seed of a_row of a point
+     * @param k point
+     * @param index identifiers of the slots of a_row, null for [0, size)
+     * @param size number of nodes of the new run
+     * @return a(k,i) of the snapshot for each slot, 0 where unknown.
+     *         Null if k is a new point
+     */
+    double[] availabilities(int k, int[] index, int size){
+        return k < this.size ? seed(a_index[k], a_value[k], index, size) : null;
+    }
+
+    private static double[] seed(int[] known, double[] values, int[] index, int size){
+        if (index == null) {
+            double[] ret = new double[size];
+            for (int p = 0; p < known.length; p++) if (known[p] < size) ret[known[p]] = values[p];
+            return ret;
+        }
+
+        double[] ret = new double[index.length];
+        for (int p = 0; p < index.length; p++) {
+            int q = Arrays.binarySearch(known, index[p]);
+            if (q >= 0) ret[p] = values[q];
+        }
+        return ret;
+    }
+}
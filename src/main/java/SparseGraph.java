@@ -0,0 +1,205 @@
+import java.util.Arrays;
+
+/**
+ * Class for sparse similarity graphs.
+ * Only the pairs with s(i,j) != -INF are stored,
+ * both by row (CSR) and by column (CSC),
+ * so that the dispatcher can slice rows and columns
+ * without ever building the dense matrix.
+ *
+ * Within a row (column) the entries are sorted by column (row) index.
+ *
+ * @author Simone Schirinzi
+ */
+class SparseGraph {
+    /**
+     * number of nodes
+     */
+    public final int size;
+
+    /**
+     * Entries of row i are in [row_ptr[i], row_ptr[i+1]).
+     * row_idx holds the column of each entry, row_val its similarity
+     */
+    private final int[] row_ptr;
+    private final int[] row_idx;
+    private final double[] row_val;
+
+    /**
+     * Entries of column j are in [col_ptr[j], col_ptr[j+1]).
+     * col_idx holds the row of each entry, col_val its similarity
+     */
+    private final int[] col_ptr;
+    private final int[] col_idx;
+    private final double[] col_val;
+
+    /**
+     * Build the graph from the preferences and a list of triples {i, j, s(i,j)}.
+     * Indexes are 0-based.
+     * The preferences come first, -INF ones are not stored.
+     * If a pair is repeated, the last value wins,
+     * as it happens when loading the dense matrix.
+     *
+     * @param size number of nodes
+     * @param preference s(i,i) for each i
+     * @param i row of each triple
+     * @param j column of each triple
+     * @param s similarity of each triple
+     * @param count number of triples
+     */
+    SparseGraph(int size, double[] preference, int[] i, int[] j, double[] s, int count){
+        this.size = size;
+
+        int diagonal = 0;
+        for (double p : preference) if (!Util.isMinDouble(p)) diagonal++;
+        int total = diagonal + count;
+
+        /* CSC by counting sort on the columns : stable on input order */
+        int[] c_ptr = new int[size + 1];
+        int[] c_idx = new int[total];
+        double[] c_val = new double[total];
+
+        for (int k = 0; k < size; k++) if (!Util.isMinDouble(preference[k])) c_ptr[k + 1]++;
+        for (int p = 0; p < count; p++) c_ptr[j[p] + 1]++;
+        for (int k = 0; k < size; k++) c_ptr[k + 1] += c_ptr[k];
+
+        int[] fill = Arrays.copyOf(c_ptr, size);
+        for (int k = 0; k < size; k++)
+            if (!Util.isMinDouble(preference[k])) {
+                int q = fill[k]++;
+                c_idx[q] = k;
+                c_val[q] = preference[k];
+            }
+        for (int p = 0; p < count; p++) {
+            int q = fill[j[p]]++;
+            c_idx[q] = i[p];
+            c_val[q] = s[p];
+        }
+
+        /* CSR from CSC : sorted by column, stable on input order */
+        int[] r_ptr = new int[size + 1];
+        int[] r_idx = new int[total];
+        double[] r_val = new double[total];
+        transpose(size, c_ptr, c_idx, c_val, r_ptr, r_idx, r_val);
+
+        /* duplicates are adjacent : keep the last */
+        int nnz = 0;
+        int start = 0;
+        for (int row = 0; row < size; row++) {
+            int end = r_ptr[row + 1];
+            for (int p = start; p < end; p++) {
+                if (p + 1 < end && r_idx[p + 1] == r_idx[p]) continue;
+                r_idx[nnz] = r_idx[p];
+                r_val[nnz] = r_val[p];
+                nnz++;
+            }
+            start = end;
+            r_ptr[row + 1] = nnz;
+        }
+
+        this.row_ptr = r_ptr;
+        this.row_idx = Arrays.copyOf(r_idx, nnz);
+        this.row_val = Arrays.copyOf(r_val, nnz);
+
+        /* CSC from CSR : sorted by row */
+        this.col_ptr = new int[size + 1];
+        this.col_idx = new int[nnz];
+        this.col_val = new double[nnz];
+        transpose(size, row_ptr, row_idx, row_val, col_ptr, col_idx, col_val);
+    }
+
+    /**
+     * Number of stored pairs
+     * @return nnz
+     */
+    public int entries(){
+        return row_idx.length;
+    }
+
+    /**
+     * Columns j such that s(i,j) != -INF, in ascending order
+     * @param i row
+     * @return column indexes
+     */
+    public int[] rowIndex(int i){
+        return Arrays.copyOfRange(row_idx, row_ptr[i], row_ptr[i + 1]);
+    }
+
+    /**
+     * Similarities s(i,j) != -INF, ordered as rowIndex(i)
+     * @param i row
+     * @return similarities
+     */
+    public double[] rowValue(int i){
+        return Arrays.copyOfRange(row_val, row_ptr[i], row_ptr[i + 1]);
+    }
+
+    /**
+     * Rows j such that s(j,i) != -INF, in ascending order
+     * @param i column
+     * @return row indexes
+     */
+    public int[] colIndex(int i){
+        return Arrays.copyOfRange(col_idx, col_ptr[i], col_ptr[i + 1]);
+    }
+
+    /**
+     * Similarities s(j,i) != -INF, ordered as colIndex(i)
+     * @param i column
+     * @return similarities
+     */
+    public double[] colValue(int i){
+        return Arrays.copyOfRange(col_val, col_ptr[i], col_ptr[i + 1]);
+    }
+
+    /**
+     * Dense row, -INF where the pair is not stored
+     * @param i row
+     * @return s(i,*)
+     */
+    public double[] denseRow(int i){
+        double[] ret = new double[size];
+        Arrays.fill(ret, Util.min_double);
+        for (int p = row_ptr[i]; p < row_ptr[i + 1]; p++) ret[row_idx[p]] = row_val[p];
+        return ret;
+    }
+
+    /**
+     * Dense column, -INF where the pair is not stored
+     * @param i column
+     * @return s(*,i)
+     */
+    public double[] denseCol(int i){
+        double[] ret = new double[size];
+        Arrays.fill(ret, Util.min_double);
+        for (int p = col_ptr[i]; p < col_ptr[i + 1]; p++) ret[col_idx[p]] = col_val[p];
+        return ret;
+    }
+
+    /**
+     * Transpose a compressed matrix.
+     * The output entries are sorted by index
+     * and keep the input order between equal indexes.
+     * @param size number of rows and columns
+     * @param in_ptr input pointers
+     * @param in_idx input indexes
+     * @param in_val input values
+     * @param ptr output pointers
+     * @param idx output indexes
+     * @param val output values
+     */
+    private static void transpose(int size, int[] in_ptr, int[] in_idx, double[] in_val,
+                                  int[] ptr, int[] idx, double[] val){
+        int count = in_ptr[size];
+        for (int p = 0; p < count; p++) ptr[in_idx[p] + 1]++;
+        for (int k = 0; k < size; k++) ptr[k + 1] += ptr[k];
+
+        int[] fill = Arrays.copyOf(ptr, size);
+        for (int k = 0; k < size; k++)
+            for (int p = in_ptr[k]; p < in_ptr[k + 1]; p++) {
+                int q = fill[in_idx[p]]++;
+                idx[q] = k;
+                val[q] = in_val[p];
+            }
+    }
+}
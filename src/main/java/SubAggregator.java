@@ -0,0 +1,141 @@
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class for host-local convergence tracking.
+ * One sub aggregator is deployed on each host when convergence is hierarchical.
+ *
+ * The nodes of the host report the flips of their local decision
+ * and, periodically, their progress.
+ * Once all the local nodes reached an iteration,
+ * the flips received so far are forwarded to the aggregator
+ * in a single message, together with that iteration.
+ *
+ * Messages between two actors keep their order,
+ * so the flips of a node up to an iteration
+ * always precede its progress for that iteration.
+ *
+ * @author Simone Schirinzi
+ */
+class SubAggregator extends AbstractActor {
+    /**
+     * Link to the aggregator
+     */
+    @SuppressWarnings("CanBeFinal")
+    private ActorRef aggregator;
+
+    /**
+     * Number of nodes on this host
+     */
+    @SuppressWarnings("CanBeFinal")
+    private int nodes;
+
+    /**
+     * Link to each local node, by identifier.
+     * It is used at termination of the algorithm.
+     */
+    private final HashMap<Integer, ActorRef> refs;
+
+    /**
+     * Number of local nodes that reported each iteration
+     */
+    private final HashMap<Long, Integer> arrivals;
+
+    /**
+     * Decisions changed since the last report, by identifier
+     */
+    private final LinkedHashMap<Integer, Boolean> pending;
+
+    /**
+     * Last iteration with a flip on this host
+     */
+    private long lastFlip;
+
+    /**
+     * Create a sub aggregator
+     * @param aggregator link to aggregator
+     * @param nodes number of nodes on this host
+     */
+    public SubAggregator(ActorRef aggregator, int nodes){
+        this.aggregator = aggregator;
+        this.nodes = nodes;
+        this.refs = new HashMap<>();
+        this.arrivals = new HashMap<>();
+        this.pending = new LinkedHashMap<>();
+        this.lastFlip = 0;
+    }
+
+    /**
+     * The termination phase is started by the aggregator.
+     * The local nodes are terminated with this actor.
+     */
+    @Override public void postStop() {
+        for (ActorRef node : refs.values()) node.tell(akka.actor.PoisonPill.getInstance(), ActorRef.noSender());
+    }
+
+    /**
+     * Actor messages handler
+     * @see Flip
+     * @see Progress
+     * @see Label
+     * @see Metrics
+     * @return receive handler
+     */
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Flip.class, this::flipHandler)
+                .match(Progress.class, this::progressHandler)
+                .match(Label.class, this::labelHandler)
+                .match(Metrics.class, msg -> aggregator.forward(msg, getContext()))
+                .build();
+    }
+
+    /**
+     * Record the new decision of a node
+     * @param flip received
+     */
+    private void flipHandler(Flip flip){
+        refs.put(flip.sender, sender());
+        pending.put(flip.sender, flip.exemplar);
+        if (flip.iteration > lastFlip) lastFlip = flip.iteration;
+    }
+
+    /**
+     * Ask the local nodes their labels.
+     * The request keeps the aggregator as sender, so the nodes reply to it
+     * @param msg received
+     */
+    private void labelHandler(Label msg){
+        for (ActorRef node : refs.values()) node.forward(msg, getContext());
+    }
+
+    /**
+     * Count the nodes that reached an iteration.
+     * When all of them did, report to the aggregator
+     * @param progress received
+     */
+    private void progressHandler(Progress progress){
+        refs.put(progress.sender, sender());
+
+        int count = arrivals.merge(progress.iteration, 1, Integer::sum);
+        if (count < nodes) return;
+        arrivals.remove(progress.iteration);
+
+        int[] changed = new int[pending.size()];
+        boolean[] exemplar = new boolean[pending.size()];
+        int p = 0;
+        for (Map.Entry<Integer, Boolean> entry : pending.entrySet()) {
+            changed[p] = entry.getKey();
+            exemplar[p] = entry.getValue();
+            p++;
+        }
+        pending.clear();
+
+        aggregator.tell(new HostProgress(progress.iteration, changed, exemplar, lastFlip), self());
+    }
+}
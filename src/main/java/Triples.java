@@ -0,0 +1,307 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Class for loading files of triples {i, j, s(i,j)}.
+ *
+ * The file is memory mapped and parsed byte by byte:
+ * no String is created for each line or number
+ * and the triples are kept in growing primitive vectors.
+ * Large files are split in chunks at line boundaries
+ * and the chunks are parsed in parallel.
+ *
+ * Fields are separated by any run of blanks, tabs, commas or semicolons.
+ * Indexes in the file are 1-based, in the vectors they are 0-based.
+ *
+ * On request each chunk also feeds a quantile sketch as it is parsed,
+ * so the preference needs neither a copy of the values nor a second pass.
+ *
+ * @author Simone Schirinzi
+ */
+class Triples {
+    /**
+     * Size in bytes of the chunks parsed in parallel
+     */
+    private static final long chunk = 64L << 20;
+
+    /**
+     * Powers of ten exactly representable as double
+     */
+    private static final double[] pow10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * i of each triple
+     */
+    int[] row;
+
+    /**
+     * j of each triple
+     */
+    int[] col;
+
+    /**
+     * s(i,j) of each triple
+     */
+    double[] value;
+
+    /**
+     * Number of triples
+     */
+    int count;
+
+    /**
+     * Number of nodes: the greatest index found
+     */
+    int size;
+
+    /**
+     * Sketch of the values, fed while parsing. Null if not requested
+     */
+    Quantiles.Sketch sketch;
+
+    private Triples(int capacity){
+        row = new int[capacity];
+        col = new int[capacity];
+        value = new double[capacity];
+    }
+
+    /**
+     * Load a file of triples
+     * @param file location of the file
+     * @return triples, in file order
+     * @throws IOException if the file cannot be read or a line is malformed
+     */
+    static Triples load(String file) throws IOException {
+        return load(file, false);
+    }
+
+    /**
+     * Load a file of triples
+     * @param file location of the file
+     * @param sketch If true : the values also feed a Quantiles.Sketch while they are parsed
+     * @return triples, in file order
+     * @throws IOException if the file cannot be read or a line is malformed
+     */
+    static Triples load(String file, boolean sketch) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            long length = channel.size();
+
+            /* chunk bounds, moved forward to the beginning of a line */
+            int chunks = (int) Math.max(1, (length + chunk - 1) / chunk);
+            long[] bounds = new long[chunks + 1];
+            bounds[chunks] = length;
+            for (int c = 1; c < chunks; c++) bounds[c] = lineStart(channel, Math.max(bounds[c - 1], c * chunk));
+
+            Triples[] parts = new Triples[chunks];
+            IOException[] error = new IOException[1];
+            IntStream stream = IntStream.range(0, chunks);
+            if (chunks > 1) stream = stream.parallel();
+            stream.forEach(c -> {
+                try {
+                    parts[c] = parse(channel.map(FileChannel.MapMode.READ_ONLY, bounds[c], bounds[c + 1] - bounds[c]), sketch);
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+            if (error[0] != null) throw error[0];
+
+            return concat(parts);
+        }
+    }
+
+    /**
+     * Find the beginning of the first line at or after a position
+     * @param channel of the file
+     * @param position to start from
+     * @return position following the first new line
+     * @throws IOException if the file cannot be read
+     */
+    private static long lineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long length = channel.size();
+        while (position < length) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            for (int p = 0; p < read; p++)
+                if (buffer.get(p) == '\n') return position + p + 1;
+            position += read;
+        }
+        return length;
+    }
+
+    /**
+     * Parse a chunk made of whole lines
+     * @param buffer mapped chunk
+     * @param sketch If true : the values also feed a sketch of the chunk
+     * @return triples of the chunk
+     * @throws IOException if a line is malformed
+     */
+    private static Triples parse(MappedByteBuffer buffer, boolean sketch) throws IOException {
+        Triples triples = new Triples(Math.max(16, buffer.limit() / 24));
+        if (sketch) triples.sketch = new Quantiles.Sketch();
+        double[] fields = new double[3];
+        int limit = buffer.limit();
+        int p = 0;
+
+        while (p < limit) {
+            int field = 0;
+            /* one line */
+            while (p < limit) {
+                byte b = buffer.get(p);
+                if (b == '\n') { p++; break; }
+                if (isSeparator(b)) { p++; continue; }
+
+                int end = p;
+                while (end < limit && !isSeparator(buffer.get(end)) && buffer.get(end) != '\n') end++;
+                if (field < 3) fields[field] = parseDouble(buffer, p, end);
+                field++;
+                p = end;
+            }
+
+            if (field == 0) continue;
+            if (field < 3) throw new IOException("Malformed line: expected {i, j, s(i,j)}");
+            triples.add((int) Math.round(fields[0]), (int) Math.round(fields[1]), fields[2]);
+        }
+        return triples;
+    }
+
+    /**
+     * @param b byte to check
+     * @return true if b separates two fields
+     */
+    private static boolean isSeparator(byte b){
+        return b == ' ' || b == '\t' || b == ',' || b == ';' || b == '\r';
+    }
+
+    /**
+     * Parse a number without creating a String.
+     * Mantissas up to 18 digits and exponents up to 22 are computed exactly,
+     * as a correctly rounded product or quotient of two doubles.
+     * Anything else falls back to Double.parseDouble.
+     *
+     * @param buffer containing the number
+     * @param from first byte
+     * @param to byte after the last
+     * @return parsed value
+     * @throws IOException if the number is malformed
+     */
+    private static double parseDouble(MappedByteBuffer buffer, int from, int to) throws IOException {
+        int p = from;
+        boolean negative = false;
+        if (buffer.get(p) == '-' || buffer.get(p) == '+') negative = buffer.get(p++) == '-';
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean dot = false;
+        boolean any = false;
+        boolean truncated = false;
+
+        for (; p < to; p++) {
+            byte b = buffer.get(p);
+            if (b >= '0' && b <= '9') {
+                any = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0) digits++;
+                    if (dot) exponent--;
+                } else truncated = true;
+            } else if (b == '.' && !dot) {
+                dot = true;
+            } else break;
+        }
+
+        if (p < to && any && (buffer.get(p) == 'e' || buffer.get(p) == 'E')) {
+            p++;
+            boolean negativeExp = false;
+            if (p < to && (buffer.get(p) == '-' || buffer.get(p) == '+')) negativeExp = buffer.get(p++) == '-';
+            int exp = 0;
+            int start = p;
+            for (; p < to && buffer.get(p) >= '0' && buffer.get(p) <= '9'; p++)
+                exp = exp < 100000 ? exp * 10 + (buffer.get(p) - '0') : exp;
+            if (p == start) return slowParse(buffer, from, to);
+            exponent += negativeExp ? -exp : exp;
+        }
+
+        if (!any || truncated || p != to) return slowParse(buffer, from, to);
+        if (mantissa >= (1L << 53) || exponent < -22 || exponent > 22) return slowParse(buffer, from, to);
+
+        double value = exponent < 0 ? mantissa / pow10[-exponent] : mantissa * pow10[exponent];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse a number through a String
+     * @param buffer containing the number
+     * @param from first byte
+     * @param to byte after the last
+     * @return parsed value
+     * @throws IOException if the number is malformed
+     */
+    private static double slowParse(MappedByteBuffer buffer, int from, int to) throws IOException {
+        char[] chars = new char[to - from];
+        for (int p = from; p < to; p++) chars[p - from] = (char) buffer.get(p);
+        try {
+            return Double.parseDouble(new String(chars));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed number: " + new String(chars), e);
+        }
+    }
+
+    /**
+     * Append a triple, growing the vectors if needed
+     * @param i 1-based row
+     * @param j 1-based column
+     * @param s similarity
+     */
+    private void add(int i, int j, double s){
+        if (count == row.length) {
+            int grown = row.length + (row.length >> 1) + 1;
+            row = Arrays.copyOf(row, grown);
+            col = Arrays.copyOf(col, grown);
+            value = Arrays.copyOf(value, grown);
+        }
+        row[count] = i - 1;
+        col[count] = j - 1;
+        value[count] = s;
+        count++;
+        size = Math.max(size, Math.max(i, j));
+        if (sketch != null) sketch.add(s);
+    }
+
+    /**
+     * Join the triples of the chunks, keeping the file order,
+     * and merge their sketches
+     * @param parts triples of each chunk
+     * @return all the triples
+     */
+    private static Triples concat(Triples[] parts){
+        if (parts.length == 1) return parts[0];
+
+        int count = 0;
+        for (Triples part : parts) count += part.count;
+
+        Triples ret = new Triples(count);
+        for (Triples part : parts) {
+            System.arraycopy(part.row, 0, ret.row, ret.count, part.count);
+            System.arraycopy(part.col, 0, ret.col, ret.count, part.count);
+            System.arraycopy(part.value, 0, ret.value, ret.count, part.count);
+            ret.count += part.count;
+            ret.size = Math.max(ret.size, part.size);
+            if (part.sketch == null) continue;
+            if (ret.sketch == null) ret.sketch = new Quantiles.Sketch();
+            ret.sketch.add(part.sketch);
+        }
+        return ret;
+    }
+}
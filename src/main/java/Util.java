@@ -2,7 +2,7 @@ import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Class for file load
@@ -29,10 +29,33 @@ class Util {
     public static final double min_double = Double.NEGATIVE_INFINITY;
     public static boolean isMinDouble(double value){return Double.isInfinite(value);}
 
+    /**
+     * Round a vector to single precision. -INF stays -INF
+     * @param values to round
+     * @return (float) values[i] for each i
+     */
+    public static float[] toFloat(double[] values){
+        float[] ret = new float[values.length];
+        for (int i = 0; i < values.length; i++) ret[i] = (float) values[i];
+        return ret;
+    }
+
+    /**
+     * Widen a vector to double precision, exactly
+     * @param values to widen
+     * @return values[i] for each i
+     */
+    public static double[] toDouble(float[] values){
+        double[] ret = new double[values.length];
+        for (int i = 0; i < values.length; i++) ret[i] = values[i];
+        return ret;
+    }
+
     /**
      * Build a graph from a file which each line contains {i, j, s(i,j)}
      * @param similarity_file input file location
-     * @param similarity_regex Regular expression for the division of each line.
+     * @param similarity_regex Kept for compatibility, the file is parsed by Triples:
+     *                         fields are divided by blanks, tabs, commas or semicolons.
      *                         It is assumed that there are no more than one triple per line.
      * @param preference_file Location of the preference file. Line i contains s(i, i)
      *                        It is assumed that there are no more than one preference per line.
@@ -44,24 +67,8 @@ class Util {
     @SuppressWarnings({"SameParameterValue","unused"})
     public static double[][] buildGraph(String similarity_file, String similarity_regex, String preference_file, boolean median_preference, double sigma){
         /* File Read */
-        ArrayList<double[]> input = new ArrayList<>();
-        try(BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream(similarity_file), "UTF-8"))) {
-            String line;
-            while ((line = reader.readLine()) != null){
-                String[] split = line.split(similarity_regex);
-                input.add(new double[]{
-                        Double.parseDouble(split[0]), Double.parseDouble(split[1]), Double.parseDouble(split[2])
-                });
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
-        }
-
-        /* find size */
-        int size = -1;
-        for(double[] e : input)
-            size = Math.max(Math.max(size,(int) Math.round(e[0])),(int) Math.round(e[1]));
+        Triples input = readTriples(similarity_file, median_preference && Constant.approximatePreference);
+        int size = input.size;
 
         /* Graph build
         * May take a lot of memory
@@ -72,15 +79,87 @@ class Util {
         for(int i = 0; i < size; i++)for(int j = 0; j < size; j++)Graph[i][j] = min_double;
 
         /* Preference load */
+        double[] preference = preference(input, size, preference_file, median_preference);
+        for(int i = 0; i < size; i++) Graph[i][i] = preference[i];
+
+        /* Graph load */
+        for(int p = 0; p < input.count; p++)
+            Graph[input.row[p]][input.col[p]] = input.value[p] + getNoise(sigma);
+
+        return Graph;
+    }
+
+    /**
+     * Build a sparse graph from a file which each line contains {i, j, s(i,j)}
+     * Only the pairs in the file and the preferences are stored.
+     * @param similarity_file input file location
+     * @param similarity_regex Kept for compatibility, the file is parsed by Triples:
+     *                         fields are divided by blanks, tabs, commas or semicolons.
+     *                         It is assumed that there are no more than one triple per line.
+     * @param preference_file Location of the preference file. Line i contains s(i, i)
+     *                        It is assumed that there are no more than one preference per line.
+     * @param median_preference If false : preference are loaded from file
+     *                          If true : preference are computed locally
+     * @param sigma Preference noise's order of magnitude
+     * @return sparse similarity graph
+     * @see SparseGraph
+     */
+    @SuppressWarnings({"SameParameterValue","unused"})
+    public static SparseGraph buildSparseGraph(String similarity_file, String similarity_regex, String preference_file, boolean median_preference, double sigma){
+        /* File Read */
+        Triples input = readTriples(similarity_file, median_preference && Constant.approximatePreference);
+        int size = input.size;
+
+        /* Noise is added in place : the triples are not copied */
+        for(int p = 0; p < input.count; p++) input.value[p] += getNoise(sigma);
+
+        /* Preference load */
+        double[] preference = preference(input, size, preference_file, median_preference);
+
+        return new SparseGraph(size, preference, input.row, input.col, input.value, input.count);
+    }
+
+    /**
+     * Read a file which each line contains {i, j, s(i,j)}
+     * @param similarity_file input file location
+     * @param sketch If true : the values feed a quantile sketch while they are parsed
+     * @return triples
+     * @see Triples
+     */
+    private static Triples readTriples(String similarity_file, boolean sketch){
+        try {
+            return Triples.load(similarity_file, sketch);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Compute or load the preferences.
+     * An approximate quantile is read from the sketch fed while the file was parsed
+     * @param input triples of loaded values
+     * @param size number of nodes
+     * @param preference_file Location of the preference file. Line i contains s(i, i)
+     * @param median_preference If false : preference are loaded from file
+     *                          If true : preference are computed locally
+     * @return s(i,i) for each i
+     */
+    private static double[] preference(Triples input, int size, String preference_file, boolean median_preference){
+        double[] preference = new double[size];
+        Arrays.fill(preference, min_double);
         if(median_preference) {
-            double median = GetMedian(input);
-            for(int i = 0; i < size; i++) Graph[i][i] = median;
+            double value = input.sketch != null
+                    ? input.sketch.quantile(Constant.preferenceQuantile)
+                    : getPreference(input.value, input.count, Constant.preferenceQuantile, Constant.approximatePreference);
+            for(int i = 0; i < size; i++) preference[i] = value;
         } else {
             try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(preference_file),"UTF-8"))) {
                 String line;
                 int i = 0;
                 while ((line = reader.readLine()) != null){
-                    Graph[i][i] = Double.parseDouble(line);
+                    preference[i] = Double.parseDouble(line);
                     i++;
                 }
                 assert (i == size);
@@ -89,15 +168,7 @@ class Util {
                 System.exit(1);
             }
         }
-
-        /* Graph load */
-        for(double[] e : input){
-            int i = (int) Math.round(e[0]);
-            int j = (int) Math.round(e[1]);
-            Graph[i-1][j-1] = e[2] + getNoise(sigma);
-        }
-
-        return Graph;
+        return preference;
     }
 
     /**
@@ -161,25 +232,19 @@ class Util {
     }
 
     /**
-     * You sort the n data in ascending order (or decreasing order)
-     * If n number of data is equal
-     * The median is estimated using
-     * The two values that occupy the positions (n / 2) and ((n / 2) +1)
-     * The median corresponds to the central value,
-     * Or the value occupying the position (n + 1) / 2
-     * I subtract two to compensate for the fact that counts from 0
-     *
-     * @param input triple of loaded values like {i, j, s(i,j)}
-     *              We only use third value
-     * @return median value
+     * Preference computed from the loaded similarities
+     * @param input loaded values s(i,j)
+     * @param count number of values
+     * @param quantile 0.5 for the median, 0 for the minimum, p / 100 for the p-th percentile
+     * @param approximate If true : the quantile is estimated in a single streaming pass
+     *                    If false : the quantile is exact
+     * @return preference value
+     * @see Quantiles
      */
-    private static double GetMedian(ArrayList<double[]> input){
-        ArrayList<Double> median = new ArrayList<>();
-        for(double[] d : input) median.add(d[2]);
-
-        median.sort((o1, o2) -> (int)(o1-o2));
-        if(median.size() % 2 == 0) return ((median.get((median.size()-2)/2)) + median.get(((median.size()-2)/2)+1))/2;
-        else return median.get((median.size()-1)/2);
+    public static double getPreference(double[] input, int count, double quantile, boolean approximate){
+        return approximate
+                ? Quantiles.approximate(input, count, quantile)
+                : Quantiles.quantile(input, count, quantile);
     }
 
     /**
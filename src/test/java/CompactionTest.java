@@ -0,0 +1,121 @@
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Nodes with compacted vectors against the single JVM engine,
+ * on a dense graph where some points have s(k,k) = -INF
+ * and cannot be exemplars.
+ *
+ * @author Simone Schirinzi
+ */
+public class CompactionTest {
+    private static final int size = 30;
+
+    private ActorSystem system;
+
+    @Before
+    public void setUp(){
+        system = ActorSystem.create("compactionTest", ConfigFactory.parseString("akka.actor.provider = local"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Await.result(system.terminate(), Duration.create(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void infiniteSelfSimilarity() throws Exception {
+        int[] excluded = {0, 7, 19};
+        double[][] graph = graph(excluded);
+        ArrayList<Integer> expected = new LocalEngine(copy(graph)).run();
+
+        ArrayList<Integer> exemplars = cluster(graph);
+        assertEquals(expected, exemplars);
+        for (int k : excluded) assertFalse("exemplar " + k, exemplars.contains(k));
+    }
+
+    /**
+     * Run the nodes as a job: the aggregator reports the exemplars to a probe
+     * @param graph dense similarities
+     * @return exemplars
+     */
+    private ArrayList<Integer> cluster(double[][] graph) throws Exception {
+        CompletableFuture<ArrayList<Integer>> result = new CompletableFuture<>();
+        ActorRef server = system.actorOf(Props.create(Server.class, () -> new Server(result)));
+        ActorRef dispatcher = system.actorOf(Dispatcher.props(new Submit("graph", graph, null, null, size), server, 0));
+        ActorRef aggregator = system.actorOf(Aggregator.props(graph, size, server, 0));
+        for (int i = 0; i < size; i++) system.actorOf(Props.create(Node.class, aggregator, dispatcher));
+        return result.get(60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Negative squared distances of random points in the plane,
+     * with the median as preference, -INF for the excluded points
+     * @param excluded points with s(k,k) = -INF
+     * @return graph
+     */
+    private static double[][] graph(int[] excluded){
+        Random random = new Random(7);
+        double[][] p = new double[size][2];
+        for (double[] v : p) {
+            v[0] = random.nextGaussian() + 4 * random.nextInt(3);
+            v[1] = random.nextGaussian();
+        }
+        double[][] s = new double[size][size];
+        double[] values = new double[size * (size - 1)];
+        int count = 0;
+        for (int i = 0; i < size; i++)
+            for (int k = 0; k < size; k++)
+                if (i != k) {
+                    double dx = p[i][0] - p[k][0], dy = p[i][1] - p[k][1];
+                    s[i][k] = values[count++] = -(dx * dx + dy * dy);
+                }
+        Arrays.sort(values);
+        for (int i = 0; i < size; i++) s[i][i] = values[count / 2];
+        for (int k : excluded) s[k][k] = Util.min_double;
+        return s;
+    }
+
+    private static double[][] copy(double[][] graph){
+        double[][] ret = new double[graph.length][];
+        for (int i = 0; i < graph.length; i++) ret[i] = graph[i].clone();
+        return ret;
+    }
+
+    /**
+     * Job server of a single job: completes the result with its exemplars
+     */
+    static class Server extends AbstractActor {
+        private final CompletableFuture<ArrayList<Integer>> result;
+
+        Server(CompletableFuture<ArrayList<Integer>> result){
+            this.result = result;
+        }
+
+        @Override
+        public Receive createReceive(){
+            return receiveBuilder()
+                    .match(JobDone.class, msg -> result.complete(new ArrayList<>(msg.exemplars)))
+                    .match(JobFailed.class, msg -> result.completeExceptionally(new IllegalStateException(msg.reason)))
+                    .matchAny(msg -> {})
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Placement of the nodes as the dispatcher assigns the points,
+ * not as planned: each node is deployed for the point of its plan,
+ * in an order other than the points,
+ * and the host of the node initialized with each point is checked.
+ *
+ * @author Simone Schirinzi
+ */
+public class PlacementTest {
+    /**
+     * Two groups of points, [0, 20) and [20, 40),
+     * each a chain with a link every third point.
+     * Round robin splits both groups across two hosts
+     */
+    private static final int size = 40;
+
+    private ActorSystem system;
+
+    @Before
+    public void setUp(){
+        system = ActorSystem.create("placementTest", ConfigFactory.parseString("akka.actor.provider = local"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Await.result(system.terminate(), Duration.create(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void nodesGetThePlannedPoints() throws Exception {
+        Submit data = new Submit("groups", null, graph(), null, size);
+        Placement plan = Placement.plan(data, new double[]{1, 1});
+        ActorRef dispatcher = system.actorOf(Dispatcher.props(data, 0, null));
+
+        /* host of the node initialized with each point */
+        AtomicIntegerArray host = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) host.set(i, -1);
+        CountDownLatch initialized = new CountDownLatch(size);
+        for (int i = size - 1; i >= 0; i--) {
+            int point = i, planned = plan.host[i];
+            system.actorOf(Props.create(Probe.class, () -> new Probe(dispatcher, point, planned, host, initialized)));
+        }
+        assertTrue(initialized.await(10, TimeUnit.SECONDS));
+
+        long cut = 0, roundRobinCut = 0;
+        for (int i = 0; i < size; i++) {
+            assertEquals("host of point " + i, plan.host[i], host.get(i));
+            for (int j : neighbors(data.sparse, i)) {
+                if (host.get(i) != host.get(j)) cut++;
+                if (i % 2 != j % 2) roundRobinCut++;
+            }
+        }
+        assertEquals(plan.cut, cut);
+        assertEquals(plan.roundRobinCut, roundRobinCut);
+        assertTrue("placement " + cut + ", round robin " + roundRobinCut, cut < roundRobinCut);
+    }
+
+    @Test
+    public void duplicatePointIsRejected() throws Exception {
+        Submit data = new Submit("groups", null, graph(), null, size);
+        ActorRef dispatcher = system.actorOf(Dispatcher.props(data, 0, null));
+
+        AtomicIntegerArray host = new AtomicIntegerArray(size);
+        CountDownLatch first = new CountDownLatch(1);
+        system.actorOf(Props.create(Probe.class, () -> new Probe(dispatcher, 3, 0, host, first)));
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+
+        CountDownLatch second = new CountDownLatch(1);
+        system.actorOf(Props.create(Probe.class, () -> new Probe(dispatcher, 3, 1, host, second)));
+        assertTrue(second.await(10, TimeUnit.SECONDS));
+        assertEquals(0, host.get(3));
+    }
+
+    /**
+     * @return the two groups, with preference -1 and similarity -1 along the links
+     */
+    private static SparseGraph graph(){
+        int[] i = new int[4 * size], j = new int[4 * size];
+        double[] s = new double[4 * size];
+        int count = 0;
+        for (int g = 0; g < size; g += size / 2)
+            for (int p = g; p < g + size / 2; p++)
+                for (int q : new int[]{p + 1, p + 3})
+                    if (q < g + size / 2) {
+                        i[count] = p; j[count] = q; s[count++] = -1;
+                        i[count] = q; j[count] = p; s[count++] = -1;
+                    }
+        double[] preference = new double[size];
+        Arrays.fill(preference, -1);
+        return new SparseGraph(size, preference, i, j, s, count);
+    }
+
+    /**
+     * @return j once for s(i,j) and once for s(j,i), i excluded
+     */
+    private static int[] neighbors(SparseGraph graph, int i){
+        return java.util.stream.IntStream.concat(Arrays.stream(graph.rowIndex(i)), Arrays.stream(graph.colIndex(i)))
+                .filter(j -> j != i).toArray();
+    }
+
+    /**
+     * Node of a point on a host: greets the dispatcher as a node does,
+     * then records the host for the point it is initialized with,
+     * or counts down on Die
+     */
+    static class Probe extends AbstractActor {
+        private final ActorRef dispatcher;
+        private final int point, host;
+        private final AtomicIntegerArray hosts;
+        private final CountDownLatch done;
+
+        Probe(ActorRef dispatcher, int point, int host, AtomicIntegerArray hosts, CountDownLatch done){
+            this.dispatcher = dispatcher;
+            this.point = point;
+            this.host = host;
+            this.hosts = hosts;
+            this.done = done;
+        }
+
+        @Override
+        public void preStart(){
+            dispatcher.tell(new Self(null, point), self());
+        }
+
+        @Override
+        public Receive createReceive(){
+            return receiveBuilder()
+                    .match(Initialize.class, msg -> {
+                        hosts.set(msg.selfID, host);
+                        done.countDown();
+                    })
+                    .match(Die.class, msg -> done.countDown())
+                    .matchAny(msg -> {})
+                    .build();
+        }
+    }
+}